@@ -10,6 +10,8 @@ import org.apache.log4j.Logger;
 
 import topicDetector.OPTICSCluster;
 import topicDetector.Topic;
+import topicDetector.TopicIndex;
+import topicDetector.TopicRollup;
 import twitter.TweetParser;
 import util.Configure;
 import util.Converter;
@@ -30,9 +32,12 @@ public class Controler {
 			    + "1. convert, split raw tweets into separate files according to its time window(uncessary fields are filtered)\n"
 			    + "2. query {-date date} -output outputfile, query tok-K topics in given time window\n"
 			    + "3. cluster, do topic clustering based on tweets in each unit time window\n"
-			    + "4. recluster -epsilon epsilon, recluster topics by provding a new epsilon\n"
-			    + "5. start, start a socket server to listen request\n"			    
-			    + "Usage: java -jar topicbrowser.jar -cmd convert|cluster|query|recluster|start\t[-conf confFilePath}]"
+			    + "4. vectorize, vectorize tweets of each time window into binary files for cluster\n"
+			    + "5. recluster -epsilon epsilon, recluster topics by provding a new epsilon(several -epsilon sweep them, topics of each are saved to sweep/epsilon/)\n"
+			    + "6. start, start a socket server to listen request\n"			    
+			    + "7. rollup, merge topics of consecutive time windows for querying date ranges(only changed windows are merged again)\n"
+			    + "8. index, index topics of all time windows by their words for keyword search(cluster and recluster update it as well)\n"
+			    + "Usage: java -jar topicbrowser.jar -cmd convert|vectorize|cluster|query|recluster|start|rollup|index\t[-conf confFilePath}]"
 			    + "\t[-date date(e.g.,2012-08-01)]\t[-epsilon epsilon]\n"
 			    + "-conf specify the configuation file, if omit, the default one would be used\n");
 	    
@@ -41,7 +46,7 @@ public class Controler {
 	
 	
 
-	float epsilon=0f;
+	Vector<Float> epsilons=new Vector<Float>();
 	String cmd = "";
 	String confPath = "config/config.xml";
 	
@@ -59,7 +64,8 @@ public class Controler {
 		queryDates.add(args[i+1]);
 		i++;
 	    } else if("-epsilon".equals(args[i])){
-		epsilon=Float.parseFloat(args[i+1]);
+		// more than one epsilons are allowed for a parameter sweep
+		epsilons.add(Float.parseFloat(args[i+1]));
 		i++;
 	    } 
 	    else{
@@ -84,6 +90,19 @@ public class Controler {
 	    Converter converter = new Converter(conf, parser);
 	    converter.convert();    
 	    
+	} else if (cmd.equals("vectorize")) {
+	    
+	    // cmd vectorize, parse tweets of each time window once, cluster
+	    // would then load the binary vectors instead of the text
+	    parser.loadDictionary();
+	    for (File f : conf.getDocsDir().listFiles()) {
+		if (f.getName().endsWith(".txt")) {
+		    String path = f.getPath().substring(0,
+			    f.getPath().length() - 4);
+		    parser.vectorizeDocuments(path);
+		}
+	    }
+	    
 	} else if (cmd.equals("cluster")) {
 	    
 	    // cmd cluster, cluster documents to detect topics
@@ -97,7 +116,8 @@ public class Controler {
 		    Vector<Topic> tps = optics.detectTopics(path);
 		    optics.saveTopics(tps, path);
 		}
-	    }	    
+	    }
+	    TopicIndex.update(conf, optics);
 	    
 	} else if (cmd.equals("query")) {    		
 	    
@@ -128,20 +148,39 @@ public class Controler {
 	    //recluster documents by a new epsilon threshold
 	    //just need to read the ordered points and assign cluster id for them 
 	    
-	    if(epsilon==0f){
+	    if(epsilons.isEmpty()){
 		logger.info("an epsilon between (0,1) must be proviede.");
 		System.exit(0);
 	    }
 	    
-	    OPTICSCluster optics = new OPTICSCluster(conf);
+	    float[] eps = new float[epsilons.size()];
+	    for (int i = 0; i < eps.length; i++)
+		eps[i] = epsilons.get(i);
+	    
+	    // documents of topics are loaded from the vectors of the slots
+	    OPTICSCluster optics = new OPTICSCluster(conf, parser);
+	    Vector<String> paths = new Vector<String>();
 	    for (File f : conf.getDocsDir().listFiles()) {
-		if (f.getName().endsWith(".txt")) {
-		    String path = f.getPath().substring(0,
-			    f.getPath().length() - 4);
-		    Vector<Topic> tps = optics.determineTopics(epsilon, path);
-		    optics.saveTopics(tps, path);
-		}
+		if (f.getName().endsWith(".txt"))
+		    paths.add(f.getPath().substring(0,
+			    f.getPath().length() - 4));
 	    }
+	    optics.recluster(paths, eps);
+	    // topics of a sweep are not indexed
+	    if (eps.length == 1)
+		TopicIndex.update(conf, optics);
+	    
+	} else if(cmd.equals("rollup")){
+	    
+	    // merge topics of consecutive time windows into a segment tree,
+	    // queries of date ranges then merge a few nodes of the tree
+	    TopicRollup rollup = new TopicRollup(conf);
+	    rollup.build(new OPTICSCluster(conf));
+	    
+	} else if(cmd.equals("index")){
+	    
+	    // index topics by their words, only changed time windows are read
+	    TopicIndex.update(conf, new OPTICSCluster(conf));
 	    
 	} else if(cmd.equals("start")){
 	    
@@ -150,7 +189,7 @@ public class Controler {
 	} else{
 	    
 	    logger.info("invalid command: "+cmd+
-		    "cmd should be one of [convert|query|cluster|recluster|start]");
+		    "cmd should be one of [convert|vectorize|query|cluster|recluster|start|rollup|index]");
 	}
     }
 
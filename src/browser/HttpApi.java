@@ -0,0 +1,415 @@
+package browser;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.Vector;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.log4j.Logger;
+import org.json.simple.JSONValue;
+
+import topicDetector.TopicIndex;
+import topicDetector.TopicStore;
+import util.Configure;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/*
+ * http endpoint of the web server. GET /topics answers a query by the
+ * parameters:
+ *
+ * dates: query dates as in the socket protocol, e.g.,2012-08-01~2012-08-03
+ * slots: slots instead of dates, e.g., 3,7~9
+ * k: number of topics, the configured topk by default
+ * eps: epsilon of the topics, the configured one by default
+ * format: json(default) or html
+ *
+ * GET /search finds the topics of keywords(q, e.g., q=phelps+gold) in the
+ * slots of dates or slots(all by default) by the topic index. it answers the
+ * top k topics in json, each with its slot, start time of the slot, rank in
+ * the slot, support, score and words.
+ *
+ * GET /stats answers the metrics of the server.
+ *
+ * connections are kept alive between requests. an answer is written in
+ * chunks as it is rendered, or at once if it is cached or rendered for a
+ * concurrent request. it is compressed by gzip if the client accepts it, and
+ * tagged by the
+ * versions of the topic files it is merged from, so that a request with the
+ * current tag in If-None-Match is answered 304 without merging. requests
+ * share the threads and the queue of the socket protocol, a request beyond
+ * them is answered 503.
+ */
+public class HttpApi implements HttpHandler {
+    static final Logger logger = Logger.getLogger(HttpApi.class);
+
+    WebServer server;
+    Configure conf;
+
+    public HttpApi(WebServer server) {
+	this.server = server;
+	this.conf = server.conf;
+    }
+
+    public void start() throws IOException {
+	HttpServer http = HttpServer.create(new InetSocketAddress(conf
+		.getHttpPort()), conf.getServerBacklog());
+	http.createContext("/topics", this);
+	http.createContext("/search", this);
+	http.createContext("/stats", this);
+	// requests are read by these threads and handed to the threads of the
+	// server at once
+	http.setExecutor(Executors.newCachedThreadPool());
+	http.start();
+	logger.info("http endpoint listening on port " + conf.getHttpPort());
+    }
+
+    public void handle(final HttpExchange exchange) throws IOException {
+	final long deadline = System.currentTimeMillis()
+		+ conf.getRequestTimeout() * 1000L;
+	try {
+	    server.executor.execute(new Runnable() {
+		public void run() {
+		    try {
+			serve(exchange, deadline);
+		    } catch (IOException e) {
+			logger.warn("http request failed", e);
+		    } finally {
+			exchange.close();
+		    }
+		}
+	    });
+	} catch (RejectedExecutionException e) {
+	    server.rejected.incrementAndGet();
+	    logger.warn("too many requests, rejected");
+	    sendText(exchange, 503, "busy");
+	    exchange.close();
+	}
+    }
+
+    void serve(HttpExchange exchange, long deadline) throws IOException {
+	if (!"GET".equals(exchange.getRequestMethod())) {
+	    sendText(exchange, 405, "only GET is supported");
+	    return;
+	}
+	if ("/stats".equals(exchange.getHttpContext().getPath())) {
+	    sendText(exchange, 200, server.stats());
+	    return;
+	}
+	if ("/search".equals(exchange.getHttpContext().getPath())) {
+	    search(exchange);
+	    return;
+	}
+
+	TopicQuery query;
+	try {
+	    HashMap<String, String> params = parseParams(exchange
+		    .getRequestURI().getRawQuery());
+	    TreeSet<Integer> slots;
+	    if (params.containsKey("slots"))
+		slots = TopicQuery.parseSlots(params.get("slots"), conf);
+	    else if (params.containsKey("dates"))
+		slots = TopicQuery.parseDates(params.get("dates"), conf);
+	    else {
+		sendText(exchange, 400, "dates or slots is required");
+		return;
+	    }
+	    query = new TopicQuery(server, slots, deadline);
+	    if (params.containsKey("k"))
+		query.topK = parseK(params.get("k"));
+	    if (params.containsKey("eps"))
+		query.epsilon = Float.parseFloat(params.get("eps"));
+	    query.json = !"html".equals(params.get("format"));
+	} catch (ParseException e) {
+	    sendText(exchange, 400, e.getMessage());
+	    return;
+	} catch (NumberFormatException e) {
+	    sendText(exchange, 400, e.getMessage());
+	    return;
+	}
+
+	if (query.slots.isEmpty()) {
+	    sendText(exchange, 404, "empty");
+	    return;
+	}
+	if (query.epsilon != conf.getEps() && query.getTopicPaths().isEmpty()) {
+	    sendText(exchange, 404, "no topics of epsilon " + query.epsilon);
+	    return;
+	}
+	if (System.currentTimeMillis() > deadline) {
+	    timeout(exchange);
+	    return;
+	}
+
+	boolean gzip = acceptsGzip(exchange.getRequestHeaders().get(
+		"Accept-Encoding"));
+	String tag = "\"" + Long.toHexString(query.getVersion()) + "-"
+		+ Integer.toHexString(query.getKey().hashCode())
+		+ (gzip ? "-gzip" : "") + "\"";
+
+	Headers headers = exchange.getResponseHeaders();
+	headers.set("ETag", tag);
+	headers.set("Vary", "Accept-Encoding");
+	headers.set("Content-Type", query.json ? "application/json; charset=utf-8"
+		: "text/html; charset=utf-8");
+	if (matches(exchange.getRequestHeaders().getFirst("If-None-Match"), tag)) {
+	    exchange.sendResponseHeaders(304, -1);
+	    return;
+	}
+
+	ResponseStream body = new ResponseStream(exchange, gzip);
+	BufferedWriter out = new BufferedWriter(new OutputStreamWriter(body,
+		"UTF-8"));
+	try {
+	    String ret = query.answer(out);
+	    // null if the answer has been written by merging
+	    if (ret != null)
+		out.write(ret);
+	    out.close();
+	} catch (TimeoutException e) {
+	    timeout(exchange);
+	} catch (InterruptedException e) {
+	    throw new IOException(e);
+	}
+    }
+
+    /*
+     * answer a keyword search by the topic index
+     */
+    void search(HttpExchange exchange) throws IOException {
+	TopicIndex index = server.getIndex();
+	if (index == null || server.dictionary == null || server.parser == null) {
+	    sendText(exchange, 404, "no topic index");
+	    return;
+	}
+
+	int[] words;
+	BitSet slots = null;
+	int k = conf.getTopK();
+	try {
+	    HashMap<String, String> params = parseParams(exchange
+		    .getRequestURI().getRawQuery());
+	    if (!params.containsKey("q")) {
+		sendText(exchange, 400, "q is required");
+		return;
+	    }
+	    words = TopicIndex.lookup(server.dictionary, server.parser
+		    .newParser(), params.get("q"));
+	    TreeSet<Integer> slotSet = null;
+	    if (params.containsKey("slots"))
+		slotSet = TopicQuery.parseSlots(params.get("slots"), conf);
+	    else if (params.containsKey("dates"))
+		slotSet = TopicQuery.parseDates(params.get("dates"), conf);
+	    if (slotSet != null) {
+		slots = new BitSet();
+		for (int slot : slotSet)
+		    slots.set(slot);
+	    }
+	    if (params.containsKey("k"))
+		k = parseK(params.get("k"));
+	} catch (ParseException e) {
+	    sendText(exchange, 400, e.getMessage());
+	    return;
+	} catch (NumberFormatException e) {
+	    sendText(exchange, 400, e.getMessage());
+	    return;
+	}
+
+	Vector<TopicIndex.Hit> hits = index.search(words, slots, k);
+	SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm");
+	StringBuilder json = new StringBuilder("[");
+	for (TopicIndex.Hit hit : hits) {
+	    if (json.length() > 1)
+		json.append(',');
+	    json.append("{\"slot\":").append(hit.getSlot());
+	    json.append(",\"time\":\"").append(dateFormat.format(new Date(
+		    Configure.startTime + hit.getSlot() * Configure.timeWindow)));
+	    json.append("\",\"rank\":").append(hit.getRank());
+	    json.append(",\"support\":").append(hit.getSupport());
+	    json.append(",\"score\":").append(hit.getScore());
+	    json.append(",\"words\":[");
+	    TopicStore store = server.topics.get(conf.getDocsDir().getPath()
+		    + "/" + hit.getSlot());
+	    if (store != null && hit.getRank() < store.size()) {
+		boolean first = true;
+		for (int id : store.get(hit.getRank()).getTopWordIds()) {
+		    String word = server.dictionary.getWord(id);
+		    if (word == null)
+			continue;
+		    if (!first)
+			json.append(',');
+		    json.append('"').append(JSONValue.escape(word)).append('"');
+		    first = false;
+		}
+	    }
+	    json.append("]}");
+	}
+	json.append(']');
+
+	byte[] bytes = json.toString().getBytes("UTF-8");
+	exchange.getResponseHeaders().set("Content-Type",
+		"application/json; charset=utf-8");
+	exchange.sendResponseHeaders(200, bytes.length);
+	OutputStream out = exchange.getResponseBody();
+	out.write(bytes);
+	out.close();
+    }
+
+    void timeout(HttpExchange exchange) throws IOException {
+	server.timeouts.incrementAndGet();
+	logger.warn("request timeout");
+	exchange.getResponseHeaders().remove("ETag");
+	sendText(exchange, 503, "timeout");
+    }
+
+    /*
+     * @return whether If-None-Match has tag
+     */
+    static boolean matches(String ifNoneMatch, String tag) {
+	if (ifNoneMatch == null)
+	    return false;
+	for (String t : ifNoneMatch.split(",")) {
+	    t = t.trim();
+	    if (t.equals(tag) || t.equals("*"))
+		return true;
+	}
+	return false;
+    }
+
+    /*
+     * @return whether Accept-Encoding accepts gzip, i.e., gzip or else * is
+     * listed with a positive q-value
+     */
+    static boolean acceptsGzip(List<String> acceptEncoding) {
+	if (acceptEncoding == null)
+	    return false;
+	float gzip = -1, any = -1;
+	for (String header : acceptEncoding) {
+	    for (String entry : header.split(",")) {
+		String[] parts = entry.split(";");
+		String coding = parts[0].trim().toLowerCase();
+		float q = 1;
+		for (int i = 1; i < parts.length; i++) {
+		    String param = parts[i].trim();
+		    if (!param.startsWith("q=") && !param.startsWith("Q="))
+			continue;
+		    try {
+			q = Float.parseFloat(param.substring(2).trim());
+		    } catch (NumberFormatException e) {
+			// an invalid q-value does not accept the coding
+			q = 0;
+		    }
+		}
+		if (coding.equals("gzip") || coding.equals("x-gzip"))
+		    gzip = Math.max(gzip, q);
+		else if (coding.equals("*"))
+		    any = Math.max(any, q);
+	    }
+	}
+	return gzip >= 0 ? gzip > 0 : any > 0;
+    }
+
+    /*
+     * @return number of topics k, which must be positive
+     */
+    static int parseK(String value) {
+	int k = Integer.parseInt(value);
+	if (k <= 0)
+	    throw new NumberFormatException("k must be positive: " + k);
+	return k;
+    }
+
+    /*
+     * @return parameter->value of a raw query string
+     */
+    static HashMap<String, String> parseParams(String rawQuery)
+	    throws IOException {
+	HashMap<String, String> params = new HashMap<String, String>();
+	if (rawQuery == null)
+	    return params;
+	for (String param : rawQuery.split("&")) {
+	    int pos = param.indexOf('=');
+	    if (pos < 0)
+		continue;
+	    params.put(URLDecoder.decode(param.substring(0, pos), "UTF-8"),
+		    URLDecoder.decode(param.substring(pos + 1), "UTF-8"));
+	}
+	return params;
+    }
+
+    static void sendText(HttpExchange exchange, int code, String text)
+	    throws IOException {
+	byte[] bytes = text.getBytes("UTF-8");
+	exchange.getResponseHeaders().set("Content-Type",
+		"text/plain; charset=utf-8");
+	exchange.sendResponseHeaders(code, bytes.length);
+	OutputStream out = exchange.getResponseBody();
+	out.write(bytes);
+	out.close();
+    }
+
+    /*
+     * chunked body of an answer. the headers are sent by the first write, so
+     * that a query failing before it is answered gets an error status
+     */
+    static class ResponseStream extends OutputStream {
+	HttpExchange exchange;
+	boolean gzip;
+	OutputStream out;
+
+	ResponseStream(HttpExchange exchange, boolean gzip) {
+	    this.exchange = exchange;
+	    this.gzip = gzip;
+	}
+
+	void start() throws IOException {
+	    if (out != null)
+		return;
+	    if (gzip)
+		exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+	    exchange.sendResponseHeaders(200, 0);
+	    out = exchange.getResponseBody();
+	    if (gzip)
+		out = new GZIPOutputStream(out);
+	}
+
+	public void write(int b) throws IOException {
+	    start();
+	    out.write(b);
+	}
+
+	public void write(byte[] b, int off, int len) throws IOException {
+	    if (len == 0)
+		return;
+	    start();
+	    out.write(b, off, len);
+	}
+
+	public void flush() throws IOException {
+	    if (out != null)
+		out.flush();
+	}
+
+	public void close() throws IOException {
+	    start();
+	    out.close();
+	}
+    }
+}
@@ -0,0 +1,372 @@
+package browser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import util.Configure;
+
+/*
+ * LRU cache of answers to merge queries, keyed by the sorted slot paths and
+ * the clustering parameters. an answer is outdated once a .topic file of its
+ * slots is rewritten. unused answers are evicted when the number of answers
+ * or their size exceed the budget.
+ *
+ * concurrent queries of the same key are coalesced, the first one computes
+ * the answer and streams it to its client, the others wait for a copy of it.
+ * answers are computed by the merge pool if set, so that a query giving up
+ * does not stop the computation of an answer others may ask for.
+ */
+public class QueryCache {
+    final int maxEntries;
+    final long maxBytes;
+
+    // key->answer, in access order
+    LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(
+	    16, 0.75f, true);
+    long bytes;
+
+    // key@version->answer being computed
+    HashMap<String, FutureTask<String>> pending = new HashMap<String, FutureTask<String>>();
+
+    // threads computing answers, see {@link #setMergePool}
+    ExecutorService mergePool;
+
+    long hits;
+    long misses;
+    long coalesced;
+    long evictions;
+
+    class Entry {
+	String value;
+	long version;
+	long bytes;
+    }
+
+    /*
+     * computation of an answer, which writes it to out as it is rendered
+     */
+    public interface Loader {
+	void write(Writer out) throws IOException;
+    }
+
+    /*
+     * @param maxEntries max number of cached answers
+     * @param maxBytes max bytes of cached answers
+     */
+    public QueryCache(int maxEntries, long maxBytes) {
+	this.maxEntries = maxEntries;
+	this.maxBytes = maxBytes;
+    }
+
+    public QueryCache(Configure conf) {
+	this(conf.getQueryCacheNum(), (long) conf.getQueryCacheMB() << 20);
+    }
+
+    /*
+     * compute answers by pool instead of the threads of the queries. an
+     * answer is computed by the thread of its query if the pool is full
+     */
+    public void setMergePool(ExecutorService pool) {
+	this.mergePool = pool;
+    }
+
+    /*
+     * @param paths sorted slot paths(without suffix) of a query
+     *
+     * @return the key of the query
+     */
+    public static String key(Vector<String> paths, Configure conf) {
+	StringBuilder key = new StringBuilder();
+	for (String path : paths)
+	    key.append(path).append(',');
+	key.append(conf.getMeps()).append(',').append(conf.getEps())
+		.append(',').append(conf.getMinPts()).append(',')
+		.append(conf.getNeighborSearch()).append(',')
+		.append(conf.getClusterMode());
+	return key.toString();
+    }
+
+    /*
+     * @return the version of the topic files of paths, it changes if any of
+     * them is rewritten
+     */
+    public static long version(Vector<String> paths) {
+	long version = 0;
+	for (String path : paths) {
+	    File f = new File(path + ".topic");
+	    version = version * 31 + (f.lastModified() ^ f.length());
+	}
+	return version;
+    }
+
+    /*
+     * @return max length of an answer to cache, an answer larger than an even
+     * share of the budget is only shared by the queries waiting for it
+     */
+    public int getMaxAnswerLength() {
+	return (int) Math.min(Integer.MAX_VALUE, maxBytes / 2
+		/ Math.max(maxEntries, 1));
+    }
+
+    /*
+     * get the cached answer of key, or compute it by loader. the query
+     * computing it streams the answer to out and keeps a copy of at most
+     * {@link #getMaxAnswerLength} chars for the cache and the queries waiting
+     * for it. if out fails, the answer is still computed for them.
+     * 
+     * a query gives up after timeout milliseconds unless its answer is being
+     * written to out, the computation goes on and caches the answer. a query
+     * waiting for the same answer computed by another one computes it itself
+     * if the copy was too long.
+     * 
+     * @return the answer to write to out, null if it has been written
+     */
+    public String get(String key, long version, Loader loader, Writer out,
+	    long timeout) throws IOException, TimeoutException,
+	    InterruptedException {
+	long deadline = System.currentTimeMillis() + Math.max(timeout, 0);
+	String taskKey = key + "@" + version;
+	while (true) {
+	    FutureTask<String> task;
+	    TeeWriter tee = null;
+	    synchronized (this) {
+		Entry entry = entries.get(key);
+		if (entry != null && entry.version == version) {
+		    hits++;
+		    return entry.value;
+		}
+		task = pending.get(taskKey);
+		if (task == null) {
+		    misses++;
+		    tee = new TeeWriter(out, getMaxAnswerLength());
+		    task = new FutureTask<String>(compute(key, version, loader,
+			    tee));
+		    pending.put(taskKey, task);
+		} else
+		    coalesced++;
+	    }
+
+	    try {
+		if (tee != null) {
+		    execute(task);
+		    try {
+			task.get(Math.max(deadline - System.currentTimeMillis(),
+				0), TimeUnit.MILLISECONDS);
+		    } catch (TimeoutException e) {
+			if (tee.detach())
+			    throw e;
+			// the answer is being written, it is finished for out
+			task.get();
+		    }
+		    if (tee.getError() != null)
+			throw tee.getError();
+		    return null;
+		}
+		String value = task.get(Math.max(deadline
+			- System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+		if (value != null)
+		    return value;
+	    } catch (ExecutionException e) {
+		throw unwrap(e.getCause());
+	    }
+	    // the answer was too long to copy, compute it again
+	}
+    }
+
+    void execute(FutureTask<String> task) {
+	if (mergePool != null) {
+	    try {
+		mergePool.execute(task);
+		return;
+	    } catch (RejectedExecutionException e) {
+		// the pool is full
+	    }
+	}
+	task.run();
+    }
+
+    /*
+     * @return the computation of the answer of key by loader through tee. it
+     * is no longer pending once done and its copy is cached if complete
+     */
+    Callable<String> compute(final String key, final long version,
+	    final Loader loader, final TeeWriter tee) {
+	return new Callable<String>() {
+	    public String call() throws IOException {
+		String value = null;
+		try {
+		    loader.write(tee);
+		    tee.flush();
+		    value = tee.getCopy();
+		    return value;
+		} finally {
+		    synchronized (QueryCache.this) {
+			pending.remove(key + "@" + version);
+			if (value != null)
+			    put(key, version, value);
+		    }
+		}
+	    }
+	};
+    }
+
+    static IOException unwrap(Throwable e) throws TimeoutException,
+	    InterruptedException {
+	if (e instanceof TimeoutException)
+	    throw (TimeoutException) e;
+	if (e instanceof InterruptedException)
+	    throw (InterruptedException) e;
+	if (e instanceof IOException)
+	    return (IOException) e;
+	return new IOException(e);
+    }
+
+    /*
+     * cache the answer of key
+     */
+    void put(String key, long version, String value) {
+	Entry old = entries.remove(key);
+	if (old != null)
+	    bytes -= old.bytes;
+	Entry entry = new Entry();
+	entry.value = value;
+	entry.version = version;
+	entry.bytes = 2L * value.length();
+	entries.put(key, entry);
+	bytes += entry.bytes;
+
+	// evict answers least recently used first
+	Iterator<Entry> it = entries.values().iterator();
+	while ((entries.size() > maxEntries || bytes > maxBytes) && it.hasNext()) {
+	    bytes -= it.next().bytes;
+	    it.remove();
+	    evictions++;
+	}
+    }
+
+    /*
+     * writer of an answer to a client, which keeps a copy of the answer as
+     * long as it is not longer than max. once the client fails or is
+     * detached, only the copy is written, the error of the client is kept
+     */
+    static class TeeWriter extends Writer {
+	Writer out;
+	IOException error;
+	boolean written;
+	StringBuilder copy = new StringBuilder();
+	int max;
+
+	TeeWriter(Writer out, int max) {
+	    this.out = out;
+	    this.max = max;
+	}
+
+	public synchronized void write(char[] cbuf, int off, int len) {
+	    if (out != null) {
+		written = true;
+		try {
+		    out.write(cbuf, off, len);
+		} catch (IOException e) {
+		    fail(e);
+		}
+	    }
+	    if (copy == null)
+		return;
+	    if (copy.length() + len > max)
+		copy = null;
+	    else
+		copy.append(cbuf, off, len);
+	}
+
+	public synchronized void write(String str, int off, int len) {
+	    if (out != null) {
+		written = true;
+		try {
+		    out.write(str, off, len);
+		} catch (IOException e) {
+		    fail(e);
+		}
+	    }
+	    if (copy == null)
+		return;
+	    if (copy.length() + len > max)
+		copy = null;
+	    else
+		copy.append(str, off, off + len);
+	}
+
+	void fail(IOException e) {
+	    error = e;
+	    out = null;
+	}
+
+	public synchronized void flush() {
+	    if (out == null)
+		return;
+	    try {
+		out.flush();
+	    } catch (IOException e) {
+		fail(e);
+	    }
+	}
+
+	/*
+	 * the client is closed by its query
+	 */
+	public void close() {
+	    flush();
+	}
+
+	/*
+	 * stop writing to the client if nothing has been written to it
+	 * 
+	 * @return whether the client is detached
+	 */
+	synchronized boolean detach() {
+	    if (written)
+		return false;
+	    out = null;
+	    return true;
+	}
+
+	/*
+	 * @return the error of the client, null if it has not failed
+	 */
+	synchronized IOException getError() {
+	    return error;
+	}
+
+	/*
+	 * @return the written answer, null if it is longer than max
+	 */
+	synchronized String getCopy() {
+	    return copy == null ? null : copy.toString();
+	}
+    }
+
+    public synchronized long getHits() {
+	return hits;
+    }
+
+    public synchronized long getMisses() {
+	return misses;
+    }
+
+    public synchronized String toString() {
+	return "query cache: " + entries.size() + " answers, " + (bytes >> 10)
+		+ " KB, " + hits + " hits, " + misses + " misses, "
+		+ coalesced + " coalesced, " + evictions + " evictions";
+    }
+}
@@ -0,0 +1,270 @@
+package browser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TreeSet;
+import java.util.Vector;
+import java.util.concurrent.TimeoutException;
+
+import topicDetector.OPTICSCluster;
+import topicDetector.Topic;
+import util.Configure;
+
+/*
+ * a query of the topics of slots, answered by the shared caches of a web
+ * server for both the socket and the http protocol. besides the slots, it
+ * has the number of shown topics, the epsilon of the topics and the format
+ * of the answer.
+ *
+ * topics of the configured epsilon are merged from the rollup nodes, topics
+ * of another epsilon from the sweep directory of the slots, see
+ * {@link OPTICSCluster#recluster}.
+ */
+class TopicQuery {
+    WebServer server;
+    Configure conf;
+
+    TreeSet<Integer> slots;
+    int topK;
+    float epsilon;
+    boolean json;
+
+    // time in milliseconds the query should be answered by
+    long deadline;
+
+    // paths(without suffix) of the topics, see {@link #getTopicPaths}
+    Vector<String> topicPaths;
+
+    // slots of the docs directory, see {@link #slotsOnDisk}
+    static TreeSet<Integer> diskSlots;
+    static String diskDir;
+    static long diskModified;
+
+    TopicQuery(WebServer server, TreeSet<Integer> slots, long deadline) {
+	this.server = server;
+	this.conf = server.conf;
+	this.slots = slots;
+	this.deadline = deadline;
+	topK = conf.getTopK();
+	epsilon = conf.getEps();
+    }
+
+    /*
+     * parse query dates, dates are in the format: yyyy-MM-dd,
+     * e.g.,2012-08-01, separated by commas. a range of dates from~to, e.g.,
+     * 2012-08-01~2012-08-31, covers every slot of these days
+     *
+     * @return the slots of files corresponding to query dates, sorted
+     * without duplicates
+     */
+    static TreeSet<Integer> parseDates(String line, Configure conf)
+	    throws ParseException {
+	SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+
+	String[] queryDates = line.split(",");
+
+	TreeSet<Integer> slots = new TreeSet<Integer>();
+	for (String dateStr : queryDates) {
+	    int pos = dateStr.indexOf('~');
+	    int from, to;
+	    if (pos < 0) {
+		Date date = dateFormat.parse(dateStr);
+		from = to = Configure.getSlot(date.getTime() + 1000);
+	    } else {
+		from = Configure.getSlot(dateFormat.parse(
+			dateStr.substring(0, pos)).getTime() + 1000);
+		to = Configure.getSlot(dateFormat.parse(
+			dateStr.substring(pos + 1)).getTime()
+			+ 24 * 3600 * 1000 - 1000);
+	    }
+	    addSlots(slots, from, to, conf);
+	}
+	return slots;
+    }
+
+    /*
+     * parse slots separated by commas, a range of slots from~to covers both
+     * ends, e.g., 3,7~9
+     *
+     * @return the slots with files, sorted without duplicates
+     */
+    static TreeSet<Integer> parseSlots(String line, Configure conf) {
+	TreeSet<Integer> slots = new TreeSet<Integer>();
+	for (String slotStr : line.split(",")) {
+	    int pos = slotStr.indexOf('~');
+	    if (pos < 0) {
+		int slot = Integer.parseInt(slotStr);
+		addSlots(slots, slot, slot, conf);
+	    } else
+		addSlots(slots, Integer.parseInt(slotStr.substring(0, pos)),
+			Integer.parseInt(slotStr.substring(pos + 1)), conf);
+	}
+	return slots;
+    }
+
+    static void addSlots(TreeSet<Integer> slots, int from, int to,
+	    Configure conf) {
+	if (from <= to)
+	    slots.addAll(slotsOnDisk(conf).subSet(from, true, to, true));
+    }
+
+    /*
+     * @return the slots with files in the docs directory, listed again once a
+     * file is added to or removed from it. a range of slots is looked up in
+     * it instead of checking every slot number
+     */
+    static synchronized TreeSet<Integer> slotsOnDisk(Configure conf) {
+	File dir = conf.getDocsDir();
+	if (diskSlots != null && dir.getPath().equals(diskDir)
+		&& dir.lastModified() == diskModified)
+	    return diskSlots;
+
+	diskDir = dir.getPath();
+	diskModified = dir.lastModified();
+	diskSlots = new TreeSet<Integer>();
+	String[] names = dir.list();
+	if (names == null)
+	    return diskSlots;
+	for (String name : names) {
+	    if (!name.endsWith(".txt"))
+		continue;
+	    try {
+		diskSlots.add(Integer.parseInt(name.substring(0,
+			name.length() - 4)));
+	    } catch (NumberFormatException e) {
+		// not a slot file
+	    }
+	}
+	return diskSlots;
+    }
+
+    /*
+     * @return paths(without suffix) of the slots
+     */
+    Vector<String> getPaths() {
+	Vector<String> paths = new Vector<String>();
+	for (int slot : slots)
+	    paths.add(conf.getDocsDir().getPath() + "/" + slot);
+	return paths;
+    }
+
+    /*
+     * @return directory of the topics of the epsilon
+     */
+    String topicDir() {
+	String dir = conf.getDocsDir().getPath();
+	if (epsilon == conf.getEps())
+	    return dir;
+	return dir + "/sweep/" + epsilon;
+    }
+
+    /*
+     * @return paths(without suffix) of the topics of the slots, consecutive
+     * slots of the configured epsilon are covered by rollup nodes
+     */
+    Vector<String> getTopicPaths() {
+	if (topicPaths != null)
+	    return topicPaths;
+
+	topicPaths = new Vector<String>();
+	if (epsilon != conf.getEps()) {
+	    for (int slot : slots)
+		if (new File(topicDir(), slot + ".topic").exists())
+		    topicPaths.add(topicDir() + "/" + slot);
+	    return topicPaths;
+	}
+
+	Integer from = null, to = null;
+	for (int slot : slots) {
+	    if (from != null && slot != to + 1) {
+		topicPaths.addAll(server.rollup.cover(from, to));
+		from = null;
+	    }
+	    if (from == null)
+		from = slot;
+	    to = slot;
+	}
+	if (from != null)
+	    topicPaths.addAll(server.rollup.cover(from, to));
+	return topicPaths;
+    }
+
+    /*
+     * @return the key of the answer in the query cache
+     */
+    String getKey() {
+	return QueryCache.key(getPaths(), conf) + "," + epsilon + "," + topK
+		+ (json ? ",json" : ",html");
+    }
+
+    /*
+     * @return the version of the topic files the answer is merged from
+     */
+    long getVersion() {
+	return QueryCache.version(getTopicPaths());
+    }
+
+    /*
+     * answer the query from the query cache or by merging its topics
+     *
+     * @return the answer to write to out, null if it has been written to it
+     */
+    String answer(Writer out) throws IOException, TimeoutException,
+	    InterruptedException {
+	prefetch();
+	return server.cache.get(getKey(), getVersion(), merge(), out, deadline
+		- System.currentTimeMillis());
+    }
+
+    /*
+     * read the topics of the days before and after the queried slots in the
+     * background, users often query the next day
+     */
+    void prefetch() {
+	int perDay = (int) Math.max(1, 24 * 3600 * 1000L
+		/ Configure.timeWindow);
+	String dir = topicDir();
+	for (int i = 1; i <= perDay; i++) {
+	    server.topics.prefetch(dir + "/" + (slots.first() - i));
+	    server.topics.prefetch(dir + "/" + (slots.last() + i));
+	}
+    }
+
+    /*
+     * @return the computation of the answer, it merges the topics and writes
+     * them in html or json with tweets of the slots. it is shared by the
+     * queries of the same answer, thus it does not give up at the deadline of
+     * one
+     */
+    QueryCache.Loader merge() {
+	return new QueryCache.Loader() {
+	    public void write(Writer out) throws IOException {
+		Vector<String> topicPaths = getTopicPaths();
+		OPTICSCluster optics = new OPTICSCluster(conf, epsilon);
+		optics.setDictionary(server.dictionary);
+		optics.setAccessors(server.accessors);
+		optics.setTopicCache(server.topics);
+		optics.setReadPool(server.readers);
+		optics.setTopK(topK);
+		// the topics of a slot or rollup node need no merging, only the
+		// shown ones are loaded
+		Vector<Topic> topics;
+		if (topicPaths.isEmpty())
+		    topics = new Vector<Topic>();
+		else if (topicPaths.size() == 1)
+		    topics = optics.loadTopics(topicPaths.get(0),
+			    new Vector<Topic>(), topK);
+		else
+		    topics = optics.mergeTopics(topicPaths);
+		if (json)
+		    optics.writeJsonTopics(topics, getPaths(), out);
+		else
+		    optics.writeHtmlTopics(topics, getPaths(), out);
+	    }
+	};
+    }
+}
@@ -1,54 +1,163 @@
 package browser;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
 
 import javax.xml.parsers.ParserConfigurationException;
 
 import org.apache.log4j.Logger;
 import org.xml.sax.SAXException;
 
-import topicDetector.OPTICSCluster;
-import topicDetector.Topic;
+import topicDetector.TopicCache;
+import topicDetector.TopicIndex;
+import topicDetector.TopicRollup;
+import twitter.TweetParser;
 import util.Configure;
+import util.Dictionary;
+import util.DocumentAccessRegistry;
+import util.Parser;
 
 /*
  * serves for request from php script initiated by users
  * 
+ * a request is a line of query dates optionally followed by options
+ * separated by spaces, e.g., "2012-08-01~2012-08-03 json gzip". "json"
+ * answers topics in json instead of html, "gzip" compresses the answer. the
+ * answer is written as it is rendered, concurrent requests of it get a copy.
+ * 
+ * requests are run by a fixed number of threads. accepted requests wait in a
+ * bounded queue, requests beyond it are answered "busy" at once. a request
+ * still waiting after its deadline is answered "timeout" without merging. a
+ * request whose answer is not written by its deadline is answered "timeout"
+ * as well, while the merge goes on in the background and caches the answer.
  */
 public class WebServer {
     static final Logger logger = Logger.getLogger(Controler.class);
 
     Configure conf;
 
+    // words to label topics, loaded once and shared by all workers
+    Dictionary dictionary;
+
+    // parser of the keywords of searches, see {@link Parser#newParser}
+    Parser parser;
+
+    // slot accessors shared by all workers
+    DocumentAccessRegistry accessors;
+
+    // answers of recent queries shared by all workers
+    QueryCache cache;
+
+    // pre-merged topics of consecutive slots
+    TopicRollup rollup;
+
+    // topics of recently queried slots shared by all workers
+    TopicCache topics;
+
+    // topics of all slots by their words, see {@link #getIndex}
+    TopicIndex index;
+    long indexModified;
+
+    ThreadPoolExecutor executor;
+    AtomicLong rejected = new AtomicLong();
+    AtomicLong timeouts = new AtomicLong();
+
+    // threads reading popular documents of the slots of an answer
+    ExecutorService readers;
+
+    // threads merging answers, see {@link QueryCache#setMergePool}
+    ThreadPoolExecutor merges;
+
     public WebServer(Configure conf) {
 	this.conf = conf;
     }
 
     /*
      * start a socket server, which would keep listen request from php script.
+     * the http endpoint is started as well if its port is configured
      */
     public void start() throws ParserConfigurationException, SAXException,
 	    ParseException {
 
 	try {
+	    dictionary = new Dictionary(conf);
+	    dictionary.loadDictionary();
+	} catch (IOException e) {
+	    logger.warn("no dictionary, topics are shown without words");
+	    dictionary = null;
+	}
 
-	    ServerSocket server = new ServerSocket(conf.getPort());
+	try {
+	    parser = new TweetParser(conf);
+	} catch (IOException e) {
+	    logger.warn("no stop words, keyword search is disabled");
+	    parser = null;
+	}
+
+	accessors = new DocumentAccessRegistry(conf);
+	cache = new QueryCache(conf);
+	rollup = new TopicRollup(conf);
+	topics = new TopicCache(conf);
+	executor = new ThreadPoolExecutor(conf.getServerThreads(),
+		conf.getServerThreads(), 0L, TimeUnit.MILLISECONDS,
+		new ArrayBlockingQueue<Runnable>(conf.getServerQueue()));
+	readers = Executors.newFixedThreadPool(conf.getServerThreads());
+	merges = new ThreadPoolExecutor(conf.getServerThreads(),
+		conf.getServerThreads(), 0L, TimeUnit.MILLISECONDS,
+		new ArrayBlockingQueue<Runnable>(conf.getServerQueue()));
+	cache.setMergePool(merges);
+	long timeout = conf.getRequestTimeout() * 1000L;
+
+	try {
+	    if (conf.getHttpPort() > 0)
+		new HttpApi(this).start();
+
+	    ServerSocket server = new ServerSocket(conf.getPort(),
+		    conf.getServerBacklog());
 	    logger.info("Server socket wating for connection...");
 
 	    while (true) {
 		Socket conn = server.accept();
 		logger.info("new connection started...");
-		new Worker(conn, conf).start();
+		// a client resetting its connection must not stop the server
+		try {
+		    // a client must send its request within the timeout
+		    conn.setSoTimeout((int) timeout);
+		    try {
+			executor.execute(new Worker(conn, this, System
+				.currentTimeMillis() + timeout));
+		    } catch (RejectedExecutionException e) {
+			rejected.incrementAndGet();
+			logger.warn("too many requests, rejected");
+			reply(conn, "busy");
+		    }
+		} catch (IOException e) {
+		    logger.warn("connection error...", e);
+		    try {
+			conn.close();
+		    } catch (IOException ce) {
+			// already closed by the client
+		    }
+		}
 	    }
 
 	} catch (IOException e) {
@@ -56,81 +165,128 @@ public class WebServer {
 	}
     }
 
-    
     /*
-     * start a new thread for each request.
-     * it parses query dates, merge topics of these dates
-     * encode merged topics as string, print it to the socket receiver.
+     * print ret to the socket receiver and close the connection
      */
-    public static class Worker extends Thread {
-	private Socket conn;
-	private Configure conf;
-
-	public Worker(Socket conn, Configure conf) {
-	    this.conn = conn;
-	    this.conf = conf;
+    static void reply(Socket conn, String ret) throws IOException {
+	try {
+	    PrintWriter out = new PrintWriter(conn.getOutputStream());
+	    out.println(ret);
+	    out.flush();
+	} finally {
+	    conn.close();
 	}
+    }
 
-	/*
-	 * parse query dates from the request stream dates are in the format:
-	 * yyyy-MM-dd, e.g.,2012-08-01
-	 * 
-	 * @return a vector strings represent the paths(without suffix) of files
-	 * corresponding to query dates
-	 */
-	private Vector<String> parseArgs() throws IOException, ParseException {
-	    BufferedReader in = new BufferedReader(new InputStreamReader(
-		    conn.getInputStream()));
+    /*
+     * @return a writer of the answer to conn, compressed by gzip if asked.
+     * closing it closes the connection
+     */
+    static BufferedWriter open(Socket conn, boolean gzip) throws IOException {
+	OutputStream out = new BufferedOutputStream(conn.getOutputStream());
+	if (gzip)
+	    out = new GZIPOutputStream(out);
+	return new BufferedWriter(new OutputStreamWriter(out));
+    }
+
+    /*
+     * @return the topic index of the docs directory, opened again once it is
+     * updated. null if there is none
+     */
+    synchronized TopicIndex getIndex() throws IOException {
+	File f = TopicIndex.file(conf);
+	if (!f.exists())
+	    return null;
+	if (index == null || f.lastModified() != indexModified) {
+	    indexModified = f.lastModified();
+	    index = TopicIndex.open(f);
+	}
+	return index;
+    }
 
-	    SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+    /*
+     * @return metrics of the accessors and requests
+     */
+    String stats() {
+	return accessors + "; " + cache + "; " + topics + "; requests: " + executor.getActiveCount()
+		+ " running, " + executor.getQueue().size() + " waiting, "
+		+ executor.getCompletedTaskCount() + " completed, "
+		+ rejected.get() + " rejected, " + timeouts.get() + " timeouts; merges: "
+		+ merges.getActiveCount() + " running, "
+		+ merges.getQueue().size() + " waiting";
+    }
 
-	    String line = in.readLine();
-	    String[] queryDates = line.split(",");
+    /*
+     * serves a request on a thread of the server.
+     * it parses query dates, merge topics of these dates
+     * encode merged topics, write them to the socket receiver as encoded.
+     */
+    public static class Worker implements Runnable {
+	private Socket conn;
+	private WebServer server;
+	private Configure conf;
 
-	    String dir = conf.getDocsDir().getPath();
+	// time in milliseconds the request should be answered by
+	private long deadline;
 
-	    Vector<String> paths = new Vector<String>();
-	    for (String dateStr : queryDates) {
-		Date date = dateFormat.parse(dateStr);
-		long time = date.getTime() + 1000;
-		int slot = Configure.getSlot(time);
-		File f = new File(dir + "/" + slot + ".txt");
-		if (f.exists())
-		    paths.add(dir + "/" + slot);
-	    }
-	    return paths;
+	public Worker(Socket conn, WebServer server, long deadline) {
+	    this.conn = conn;
+	    this.server = server;
+	    this.conf = server.conf;
+	    this.deadline = deadline;
 	}
 
 	/*
 	 * (non-Javadoc)
 	 * 
-	 * @see java.lang.Thread#run()
+	 * @see java.lang.Runnable#run()
 	 */
 	public void run() {
 
-	    
 	    try {
-		Vector<String> paths = parseArgs();
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+			conn.getInputStream()));
+		String[] request = in.readLine().split(" ");
+		boolean json = false, gzip = false;
+		for (int i = 1; i < request.length; i++) {
+		    if ("json".equals(request[i]))
+			json = true;
+		    else if ("gzip".equals(request[i]))
+			gzip = true;
+		}
+		BufferedWriter out = open(conn, gzip);
 
 		String ret;
 
-		// return empty if the dates are invalid
-		if (paths.isEmpty())
-		    ret = "empty";
-		else {
-		    OPTICSCluster optics = new OPTICSCluster(conf);
-		    Vector<Topic> topics = optics.mergeTopics(paths);
-		    ret = optics.generateHtmlTopics(topics, paths);
-		    // System.out.println(ret.substring(0,1000));
+		// "stats" returns the metrics of the accessors and requests
+		if ("stats".equals(request[0])) {
+		    ret = server.stats();
+		    logger.info(ret);
+		} else {
+		    TopicQuery query = new TopicQuery(server, TopicQuery
+			    .parseDates(request[0], conf), deadline);
+		    query.json = json;
+		    // return empty if the dates are invalid
+		    if (query.slots.isEmpty())
+			ret = "empty";
+		    else if (expired())
+			ret = "timeout";
+		    else {
+			try {
+			    ret = query.answer(out);
+			} catch (TimeoutException e) {
+			    ret = "timeout";
+			    server.timeouts.incrementAndGet();
+			    logger.warn("request timeout");
+			}
+		    }
 		}
-		
-		
-		PrintWriter out = new PrintWriter(conn.getOutputStream());
-		out.println(ret);
-		out.flush();
-		
-		conn.close();
-		
+
+		// null if the answer has been written by merging
+		if (ret != null)
+		    out.write(ret);
+		out.newLine();
+		out.close();
 		logger.info("finished");
 	    } catch (IOException e) {
 		// TODO Auto-generated catch block
@@ -138,8 +294,28 @@ public class WebServer {
 	    } catch (ParseException e) {
 		// TODO Auto-generated catch block
 		e.printStackTrace();
+	    } catch (InterruptedException e) {
+		e.printStackTrace();
+	    } finally {
+		try {
+		    conn.close();
+		} catch (IOException e) {
+		    e.printStackTrace();
+		}
 	    }
 	}
+
+	/*
+	 * @return true if the deadline has passed, the request is counted as a
+	 * timeout
+	 */
+	private boolean expired() {
+	    if (System.currentTimeMillis() <= deadline)
+		return false;
+	    server.timeouts.incrementAndGet();
+	    logger.warn("request timeout");
+	    return true;
+	}
     }
 
 }
@@ -0,0 +1,102 @@
+package browser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * load test of a running web server. each of 1,2,4..N clients sends the same
+ * query repeatedly, the p50 and p99 latency and the busy/timeout answers are
+ * reported for every concurrency.
+ *
+ * Usage: WebServerBenchmark host port dates(e.g.,2012-08-01,2012-08-02)
+ * [requestsPerClient] [maxClients]
+ */
+public class WebServerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+	final String host = args[0];
+	final int port = Integer.parseInt(args[1]);
+	final String query = args[2];
+	final int requestN = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+	int maxClients = args.length > 4 ? Integer.parseInt(args[4]) : 64;
+
+	for (int clients = 1; clients <= maxClients; clients *= 2) {
+	    final long[] latencies = new long[clients * requestN];
+	    final AtomicInteger next = new AtomicInteger();
+	    final AtomicInteger busy = new AtomicInteger();
+	    final AtomicInteger timeouts = new AtomicInteger();
+	    final AtomicInteger errors = new AtomicInteger();
+
+	    Thread[] threads = new Thread[clients];
+	    long start = System.nanoTime();
+	    for (int i = 0; i < clients; i++) {
+		threads[i] = new Thread() {
+		    public void run() {
+			for (int j = 0; j < requestN; j++) {
+			    long begin = System.nanoTime();
+			    try {
+				String ret = request(host, port, query);
+				if ("busy".equals(ret))
+				    busy.incrementAndGet();
+				else if ("timeout".equals(ret))
+				    timeouts.incrementAndGet();
+			    } catch (IOException e) {
+				errors.incrementAndGet();
+			    }
+			    latencies[next.getAndIncrement()] = System
+				    .nanoTime() - begin;
+			}
+		    }
+		};
+		threads[i].start();
+	    }
+	    for (Thread t : threads)
+		t.join();
+	    long time = System.nanoTime() - start;
+
+	    Arrays.sort(latencies);
+	    System.out.println(clients + " clients: "
+		    + (latencies.length * 1000000000L / time) + " req/s, p50 "
+		    + percentile(latencies, 0.5) + " ms, p99 "
+		    + percentile(latencies, 0.99) + " ms, " + busy + " busy, "
+		    + timeouts + " timeouts, " + errors + " errors");
+	}
+	System.out.println(request(host, port, "stats"));
+    }
+
+    /*
+     * @return the first line of the answer
+     */
+    static String request(String host, int port, String query)
+	    throws IOException {
+	Socket conn = new Socket(host, port);
+	try {
+	    PrintWriter out = new PrintWriter(conn.getOutputStream());
+	    out.println(query);
+	    out.flush();
+	    BufferedReader in = new BufferedReader(new InputStreamReader(
+		    conn.getInputStream(), "UTF-8"));
+	    String line = in.readLine();
+	    // drain the rest of the answer
+	    char[] buf = new char[1 << 16];
+	    while (in.read(buf) >= 0)
+		;
+	    return line;
+	} finally {
+	    conn.close();
+	}
+    }
+
+    /*
+     * @return the latency in milliseconds at p of the sorted latencies
+     */
+    static long percentile(long[] sorted, double p) {
+	int i = (int) Math.ceil(p * sorted.length) - 1;
+	return sorted[Math.max(i, 0)] / 1000000;
+    }
+}
@@ -0,0 +1,55 @@
+package topicDetector;
+
+import java.io.BufferedWriter;
+import java.io.CharArrayWriter;
+import java.util.Random;
+import java.util.Vector;
+
+import topicDetector.OPTICSCluster.InvertedList;
+import util.Configure;
+import util.Document;
+
+/*
+ * cluster a synthetic window in window mode by 1,2,4..N threads, report the
+ * time and check that the ordered points do not depend on the thread number.
+ * 
+ * Usage: ClusterScalingBenchmark [docNum] [maxThreads]
+ */
+public class ClusterScalingBenchmark {
+
+    public static void main(String[] args) throws Exception {
+	int docN = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+	int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime
+		.getRuntime().availableProcessors();
+
+	Configure conf = new Configure("config/config.xml");
+	OPTICSCluster optics = new OPTICSCluster(conf);
+	optics.windowMode = true;
+
+	Vector<Document> docs = NeighborSearchBenchmark.generateDocs(docN,
+		new Random(7));
+	Vector<InvertedList> lists = optics.createTopicIndex(docs);
+
+	long baseTime = 0;
+	int baseHash = 0;
+	for (int threads = 1; threads <= maxThreads; threads *= 2) {
+	    optics.threads = threads;
+	    OrderedPoints points = new OrderedPoints(docN);
+
+	    long start = System.currentTimeMillis();
+	    optics.cluster(docs, lists, points);
+	    long time = System.currentTimeMillis() - start;
+
+	    CharArrayWriter buffer = new CharArrayWriter();
+	    points.save(new BufferedWriter(buffer));
+	    int hash = buffer.toString().hashCode();
+	    if (threads == 1) {
+		baseTime = time;
+		baseHash = hash;
+	    }
+	    System.out.println(threads + " threads: " + time + " ms, speedup "
+		    + (float) baseTime / time
+		    + (hash == baseHash ? "" : ", ordered points differ!"));
+	}
+    }
+}
@@ -0,0 +1,26 @@
+package topicDetector;
+
+import gnu.trove.TIntArrayList;
+
+import java.util.Vector;
+
+import topicDetector.OPTICSCluster.Point;
+
+/*
+ * every point is a candidate, i.e., the epsilon neighborhood is found by
+ * scanning the whole set
+ */
+public class LinearNeighborSearch implements NeighborSearch {
+
+    int size = 0;
+
+    public void index(Vector<Point> points) {
+	size = points.size();
+    }
+
+    public void candidates(Point p, TIntArrayList candidates) {
+	candidates.clear();
+	for (int i = 0; i < size; i++)
+	    candidates.add(i);
+    }
+}
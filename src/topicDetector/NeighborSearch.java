@@ -0,0 +1,33 @@
+package topicDetector;
+
+import gnu.trove.TIntArrayList;
+
+import java.util.Vector;
+
+import topicDetector.OPTICSCluster.Point;
+
+/*
+ * generate candidate neighbors for the epsilon neighborhood query of OPTICS.
+ * candidates are a superset of the points within max epsilon of the query
+ * point, the exact distance is checked by {@link OPTICSCluster}
+ */
+public interface NeighborSearch {
+
+    /*
+     * index a set of points, the id of each point must be its position in the
+     * set
+     * 
+     * @param points points of one clustering run
+     */
+    void index(Vector<Point> points);
+
+    /*
+     * collect ids of the points that may be within max epsilon of point p.
+     * p itself may be included
+     * 
+     * @param p query point from the indexed set
+     * 
+     * @param candidates to be filled with point ids in ascending order
+     */
+    void candidates(Point p, TIntArrayList candidates);
+}
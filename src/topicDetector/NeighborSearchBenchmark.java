@@ -0,0 +1,114 @@
+package topicDetector;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.Vector;
+
+import topicDetector.OPTICSCluster.Point;
+import util.Configure;
+import util.Document;
+
+/*
+ * compare linear scan and prefix filtering neighborhood search on a synthetic
+ * window. documents are drawn from a zipf vocabulary, a part of them are
+ * generated around a few hot events so that dense neighborhoods exist.
+ * 
+ * Usage: NeighborSearchBenchmark [docNum] [queryNum]
+ */
+public class NeighborSearchBenchmark {
+
+    static final int VOCABULARY = 200000;
+    static final int EVENTS = 200;
+
+    public static void main(String[] args) throws Exception {
+	int docN = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+	int queryN = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+	Configure conf = new Configure("config/config.xml");
+	OPTICSCluster optics = new OPTICSCluster(conf);
+
+	Vector<Point> points = generate(optics, docN, new Random(7));
+
+	NeighborSearch[] searches = new NeighborSearch[] {
+		new LinearNeighborSearch(),
+		new PrefixNeighborSearch(optics.MaxEpsilon) };
+	long[] neighborSum = new long[searches.length];
+
+	for (int s = 0; s < searches.length; s++) {
+	    optics.search = searches[s];
+
+	    long start = System.currentTimeMillis();
+	    optics.search.index(points);
+	    long indexTime = System.currentTimeMillis() - start;
+
+	    Vector<Point> neighbor = new Vector<Point>();
+	    Vector<Float> neighborDist = new Vector<Float>();
+	    Random rand = new Random(11);
+	    start = System.nanoTime();
+	    for (int i = 0; i < queryN; i++) {
+		Point p = points.get(rand.nextInt(docN));
+		optics.getEpsNeighbor(p, points, neighbor, neighborDist);
+		neighborSum[s] += neighbor.size();
+	    }
+	    double perQuery = (System.nanoTime() - start) / 1e6 / queryN;
+
+	    System.out.println(searches[s].getClass().getSimpleName()
+		    + ": index " + indexTime + " ms, " + perQuery
+		    + " ms/query, estimated window " + perQuery * docN / 1000
+		    + " s, neighbors " + neighborSum[s]);
+	}
+
+	if (neighborSum[0] != neighborSum[1])
+	    System.out.println("neighborhoods differ!");
+    }
+
+    static Vector<Point> generate(OPTICSCluster optics, int docN, Random rand) {
+	Vector<Point> points = new Vector<Point>(docN);
+	for (Document doc : generateDocs(docN, rand))
+	    points.add(optics.new Point(doc, points.size()));
+	return points;
+    }
+
+    static Vector<Document> generateDocs(int docN, Random rand) {
+	// each event has a few words shared by its tweets
+	int[][] events = new int[EVENTS][];
+	for (int e = 0; e < EVENTS; e++) {
+	    events[e] = new int[4];
+	    for (int k = 0; k < 4; k++)
+		events[e][k] = zipf(rand);
+	}
+
+	Vector<Document> docs = new Vector<Document>(docN);
+	for (int i = 0; i < docN; i++) {
+	    int len = 6 + rand.nextInt(7);
+	    TreeMap<Integer, Float> words = new TreeMap<Integer, Float>();
+	    int k = 0;
+	    if (rand.nextInt(3) == 0) {
+		int[] event = events[rand.nextInt(EVENTS)];
+		for (; k < event.length; k++)
+		    words.put(event[k], idf(event[k]));
+	    }
+	    for (; k < len; k++) {
+		int w = zipf(rand);
+		words.put(w, idf(w));
+	    }
+
+	    Document doc = new Document(i, 1, 0);
+	    doc.initWordVector(words.size());
+	    for (Map.Entry<Integer, Float> entry : words.entrySet())
+		doc.append(entry.getKey(), entry.getValue());
+	    doc.normalize();
+	    docs.add(doc);
+	}
+	return docs;
+    }
+
+    static int zipf(Random rand) {
+	return (int) Math.floor(Math.pow(VOCABULARY, rand.nextDouble()));
+    }
+
+    static float idf(int w) {
+	return (float) Math.log(VOCABULARY / (1.0 + VOCABULARY / (w + 1.0)));
+    }
+}
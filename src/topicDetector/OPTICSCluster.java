@@ -1,5 +1,9 @@
 package topicDetector;
 
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntIntHashMap;
+import gnu.trove.TLongArrayList;
+
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
@@ -7,22 +11,34 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
 
 import javax.xml.parsers.ParserConfigurationException;
 
 import org.apache.log4j.Logger;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
 import org.json.simple.JSONValue;
 import org.xml.sax.SAXException;
 
 import twitter.TweetParser;
 import util.Configure;
+import util.Dictionary;
+import util.DocumentBatch;
 import util.Document;
+import util.DocumentAccessRegistry;
 import util.DocumentRandomAccess;
+import util.JsonScanner;
 import util.Parser;
 import util.Document.Word;
 
@@ -51,65 +67,236 @@ public class OPTICSCluster implements Detector {
 
     Parser parser;
 
+    // candidate generation for epsilon neighborhood queries
+    NeighborSearch search;
+    String searchName;
+
+    // buffer for candidate ids of current neighborhood query
+    TIntArrayList candidates = new TIntArrayList();
+
+    // cluster each inverted list(false) or one pass over the window(true)
+    boolean windowMode;
+
+    // number of threads clustering groups of the window in parallel
+    int threads;
+
+    // processed points of current clustering run, indexed by point id
+    BitSet processed;
+
+    // clear the support of processed documents, so that later lists skip
+    // them. only needed when clustering each inverted list
+    boolean clearProcessed;
+
+    // fields of raw tweets shown for topics
+    static final int RAW_ID = 0, RAW_TEXT = 1, RAW_TIME = 2;
+    JsonScanner rawScanner = new JsonScanner("id", "text", "time");
+
+    // labels topics with their words if set, see {@link #setDictionary}
+    Dictionary dictionary;
+
+    // shared slot accessors if set, see {@link #setAccessors}
+    DocumentAccessRegistry accessors;
+
+    // shared slot topics if set, see {@link #setTopicCache}
+    TopicCache topicCache;
+
+    // threads reading popular documents of slots if set
+    ExecutorService readPool;
+
+    // directory keeping the ordered points of merged topics, none if null
+    File debugDir;
+
     public OPTICSCluster(Configure conf) {
+	this(conf, conf.getEps());
+    }
+
+    /*
+     * @param epsilon epsilon of topics instead of the configured one, e.g.,
+     * to merge topics of a sweep, see {@link #recluster}
+     */
+    public OPTICSCluster(Configure conf, float epsilon) {
 
 	MaxEpsilon = conf.getMeps();
-	Epsilon = conf.getEps();
+	Epsilon = epsilon;
 	MinPts = conf.getMinPts();
+	searchName = conf.getNeighborSearch();
+	search = createNeighborSearch(searchName);
+	windowMode = "window".equals(conf.getClusterMode());
+	threads = conf.getThreads();
+	debugDir = conf.getDebugDir();
     }
 
     public OPTICSCluster(Configure conf, Parser parser) throws IOException {
 	MaxEpsilon = conf.getMeps();
 	Epsilon = conf.getEps();
 	MinPts = conf.getMinPts();
+	searchName = conf.getNeighborSearch();
+	search = createNeighborSearch(searchName);
+	windowMode = "window".equals(conf.getClusterMode());
+	threads = conf.getThreads();
+	debugDir = conf.getDebugDir();
 
 	this.parser = parser;
 	this.parser.loadDictionary();
+	dictionary = parser.dict;
     }
 
     /*
-     * load documents from file specified by path(without suffix) into vector
-     * docs
-     * 
-     * @return the updated docs vector
+     * set a loaded dictionary to show the words of topics, it is read only
+     * and can be shared by all instances
      */
-    public Vector<Document> loadDocuments(String path, Vector<Document> docs)
-	    throws FileNotFoundException {
-	logger.info("loading file " + path + ".txt");
+    public void setDictionary(Dictionary dictionary) {
+	this.dictionary = dictionary;
+    }
 
-	int k = 0;
-	String line;
-	long offset = 0, nextOffset = 0;
+    /*
+     * share the slot accessors of a registry instead of opening the slots
+     * for each call
+     */
+    public void setAccessors(DocumentAccessRegistry accessors) {
+	this.accessors = accessors;
+    }
 
-	// record offset of each document within the doc file
-	DocumentRandomAccess docAccess = new DocumentRandomAccess();
-	BufferedReader in = new BufferedReader(new FileReader(path + ".txt"));
+    /*
+     * load topics from a cache shared by all instances instead of reading
+     * their files
+     */
+    public void setTopicCache(TopicCache topicCache) {
+	this.topicCache = topicCache;
+    }
+
+    /*
+     * read the popular documents of different slots by the threads of pool
+     * instead of the calling thread
+     */
+    public void setReadPool(ExecutorService readPool) {
+	this.readPool = readPool;
+    }
 
+    /*
+     * open random accessors for the slots of paths, a slot given twice is
+     * opened once. if an accessor fails to open, the opened ones are closed
+     * 
+     * @return slot->accessor, to be closed by {@link #closeAccessors}
+     */
+    HashMap<Integer, DocumentRandomAccess> openAccessors(Vector<String> paths)
+	    throws IOException {
+	HashMap<Integer, DocumentRandomAccess> docAccess = new HashMap<Integer, DocumentRandomAccess>(
+		paths.size() * 2);
+	boolean opened = false;
 	try {
-	    while ((line = in.readLine()) != null) {// &&k<50000) {
-		nextOffset += line.length() + 1;
-		Document doc = parser.parseDocument(line);
-		if (doc != null && doc.getWordVector().size() > 2) {
-		    k++;
-		    // record the offset of current document in the file
-		    docAccess.addOffset(doc.getId(), offset);
-		    docs.add(doc);
+	    for (String path : paths) {
+		int slot = Integer.parseInt(new File(path).getName());
+		if (docAccess.containsKey(slot))
+		    continue;
+
+		DocumentRandomAccess docAcs;
+		if (accessors != null) {
+		    docAcs = accessors.acquire(path);
+		} else {
+		    docAcs = new DocumentRandomAccess(path);
+		    docAcs.startRead(path);
 		}
-		offset = nextOffset;
-
+		docAccess.put(slot, docAcs);
 	    }
+	    opened = true;
+	} finally {
+	    if (!opened)
+		closeAccessors(docAccess);
+	}
+	return docAccess;
+    }
 
-	    in.close();
-	    docAccess.saveOffset(path);
+    void closeAccessors(HashMap<Integer, DocumentRandomAccess> docAccess) {
+	for (DocumentRandomAccess docAcs : docAccess.values()) {
+	    if (accessors != null)
+		accessors.release(docAcs);
+	    else
+		docAcs.endRead();
+	}
+    }
 
-	} catch (IOException e) {
-	    // TODO Auto-generated catch block
-	    e.printStackTrace();
+    /*
+     * @return the words of a topic, heaviest first. empty if there is no
+     * dictionary
+     */
+    Vector<String> topicWords(Topic tp) {
+	Vector<String> words = new Vector<String>();
+	if (dictionary == null)
+	    return words;
+	for (int id : tp.getTopWordIds()) {
+	    String word = dictionary.getWord(id);
+	    if (word != null)
+		words.add(word);
 	}
+	return words;
+    }
+
+    /*
+     * a worker for parallel clustering, it shares the parameters of other
+     * but has its own neighbor search and processed state
+     */
+    OPTICSCluster(OPTICSCluster other) {
+	MaxEpsilon = other.MaxEpsilon;
+	Epsilon = other.Epsilon;
+	MinPts = other.MinPts;
+	searchName = other.searchName;
+	search = createNeighborSearch(searchName);
+	windowMode = true;
+	threads = 1;
+    }
+
+    /*
+     * @param name neighborhood search method from the configuration
+     */
+    NeighborSearch createNeighborSearch(String name) {
+	if ("prefix".equals(name))
+	    return new PrefixNeighborSearch(MaxEpsilon);
+	if (!"linear".equals(name))
+	    logger.warn("unknown neighbor search " + name + ", use linear");
+	return new LinearNeighborSearch();
+    }
+
+    /*
+     * load documents from file specified by path(without suffix) into vector
+     * docs. vectors are read from the binary file path.vec, which is
+     * generated from path.txt if it is missing or stale
+     * 
+     * @return the updated docs vector
+     */
+    public Vector<Document> loadDocuments(String path, Vector<Document> docs)
+	    throws IOException {
+	Vector<Document> parsed = new Vector<Document>(100000);
+	TLongArrayList offsets = new TLongArrayList(100000);
+	loadVectors(path, parsed, offsets);
+
+	// record offset of each document within the doc file
+	DocumentRandomAccess docAccess = new DocumentRandomAccess();
+	for (int i = 0; i < parsed.size(); i++) {
+	    Document doc = parsed.get(i);
+	    if (doc.getWordNum() > 2) {
+		docAccess.addOffset(doc.getId(), offsets.get(i));
+		docs.add(doc);
+	    }
+	}
+	docAccess.saveOffset(path);
 
 	return docs;
     }
 
+    /*
+     * load the vectors of documents from path.vec, which is generated from
+     * path.txt if it is missing or stale
+     */
+    void loadVectors(String path, Vector<Document> parsed,
+	    TLongArrayList offsets) throws IOException {
+	logger.info("loading file " + path + ".vec");
+	if (!parser.loadVectors(path, parsed, offsets)) {
+	    parser.vectorizeDocuments(path);
+	    parser.loadVectors(path, parsed, offsets);
+	}
+    }
+
     /*
      * load topics from file specified by path(without suffix) into vector
      * topics
@@ -117,22 +304,45 @@ public class OPTICSCluster implements Detector {
      * @return updated topics vector
      */
     public Vector<Topic> loadTopics(String path, Vector<Topic> topics)
-	    throws FileNotFoundException {
+	    throws IOException {
+	return loadTopics(path, topics, Integer.MAX_VALUE);
+    }
+
+    /*
+     * load the limit most popular topics from file specified by path(without
+     * suffix) into vector topics. only these topics are decoded from a binary
+     * file
+     * 
+     * @return updated topics vector
+     */
+    public Vector<Topic> loadTopics(String path, Vector<Topic> topics,
+	    int limit) throws IOException {
+	long k = topics.size();
+	TopicStore store = topicCache != null ? topicCache.get(path)
+		: TopicStore.open(path);
+	if (store != null) {
+	    for (int i = 0; i < Math.min(store.size(), limit); i++) {
+		Topic topic = store.get(i);
+		// assign a id for each topic in increasing order
+		topic.id = k++;
+		topics.add(topic);
+	    }
+	    return topics;
+	}
 
 	String line;
 
-	// topics are stored in file with suffix .topic
+	// topics are stored in file with suffix .topic, in the previous text
+	// format a line per topic
+	Vector<Topic> parsed = new Vector<Topic>();
 	BufferedReader in = new BufferedReader(new FileReader(path + ".topic"));
-	long k = topics.size();
 	try {
 	    while ((line = in.readLine()) != null) {
 
 		Topic topic = Topic.parse(line);
 
-		// assign a id for each topic in increasing order
-		topic.id = k++;
 		if (topic != null)
-		    topics.add(topic);
+		    parsed.add(topic);
 	    }
 
 	    in.close();
@@ -141,6 +351,15 @@ public class OPTICSCluster implements Detector {
 	    e.printStackTrace();
 	}
 
+	if (limit < parsed.size()) {
+	    Collections.sort(parsed);
+	    parsed.setSize(limit);
+	}
+	for (Topic topic : parsed) {
+	    // assign a id for each topic in increasing order
+	    topic.id = k++;
+	    topics.add(topic);
+	}
 	return topics;
     }
 
@@ -157,16 +376,17 @@ public class OPTICSCluster implements Detector {
 	    throws IOException {
 
 	HashMap<Integer, InvertedList> invertedIndex = new HashMap<Integer, InvertedList>(
-		parser.dict.dict.size() / 100);
+		parser.dict.getSize() / 100);
 
 	for (Document doc : docs) {
-	    for (Word word : doc.getWordVector()) {
-		InvertedList list = invertedIndex.get(word.getId());
+	    int[] ids = doc.getWordIds();
+	    for (int i = 0; i < doc.getWordNum(); i++) {
+		InvertedList list = invertedIndex.get(ids[i]);
 
 		if (list == null) {
 		    // new a list if it does not exist
-		    list = new InvertedList(word.getId());
-		    invertedIndex.put(word.getId(), list);
+		    list = new InvertedList(ids[i]);
+		    invertedIndex.put(ids[i], list);
 		}
 		list.addDoc(doc);
 	    }
@@ -184,16 +404,18 @@ public class OPTICSCluster implements Detector {
     /*
      * similar as {@ createDocIndex}, but for topics
      */
-    public Vector<InvertedList> createTopicIndex(Vector<Topic> docs) {
+    public Vector<InvertedList> createTopicIndex(
+	    Vector<? extends Document> docs) {
 
 	HashMap<Integer, InvertedList> invertedIndex = new HashMap<Integer, InvertedList>();
 
 	for (Document doc : docs) {
-	    for (Word word : doc.getWordVector()) {
-		InvertedList list = invertedIndex.get(word.getId());
+	    int[] ids = doc.getWordIds();
+	    for (int i = 0; i < doc.getWordNum(); i++) {
+		InvertedList list = invertedIndex.get(ids[i]);
 		if (list == null) {
-		    list = new InvertedList(word.getId());
-		    invertedIndex.put(word.getId(), list);
+		    list = new InvertedList(ids[i]);
+		    invertedIndex.put(ids[i], list);
 		}
 		list.addDoc(doc);
 	    }
@@ -229,17 +451,21 @@ public class OPTICSCluster implements Detector {
 
 	logger.info("cluser topics...");
 
-	String tmpPath = "tmp/" + System.currentTimeMillis();
-	BufferedWriter out = new BufferedWriter(new FileWriter(tmpPath
-		+ ".orderedPoint"));
-	for (InvertedList list : invertedLists)
-	    doOPTICSCluster(list.docs, out);
-	out.close();
-
+	OrderedPoints points = new OrderedPoints(docs.size());
+	cluster(docs, invertedLists, points);
 	logger.info("Ordered points have been generated.");
 
+	if (debugDir != null) {
+	    // keep the ordered points for debugging, the name is unique
+	    File f = File.createTempFile("merge", ".orderedPoint", debugDir);
+	    BufferedWriter out = new BufferedWriter(new FileWriter(f));
+	    points.save(out);
+	    out.close();
+	    logger.info("Ordered points have been saved to " + f);
+	}
+
 	// determine clusters according to epsilon from ordered points
-	Vector<Topic> topics = determineTopics(Epsilon, tmpPath);
+	Vector<Topic> topics = determineTopics(Epsilon, points);
 	logger.info(topics.size() + " topics have been detected.");
 
 	return topics;
@@ -265,18 +491,18 @@ public class OPTICSCluster implements Detector {
 	logger.info(docs.size() + " documents have been indexed.");
 
 	logger.info("cluser documents...");
-	BufferedWriter out = new BufferedWriter(new FileWriter(path
-		+ ".orderedPoint"));
 
 	// cluster documents from the same inverted list
-	for (InvertedList pl : invertedLists)
-	    doOPTICSCluster(pl.docs, out);
-	out.close();
+	OrderedPoints points = new OrderedPoints(docs.size());
+	cluster(docs, invertedLists, points);
+
+	// saved for reclustering by another epsilon
+	points.saveBinary(path);
 
 	logger.info("Ordered points have been generated.");
 
 	// determine clusters according to epsilon from ordered points
-	Vector<Topic> topics = determineTopics(Epsilon, path);
+	Vector<Topic> topics = determineTopics(Epsilon, points);
 
 	logger.info(topics.size() + " topics have been detected.");
 
@@ -284,25 +510,135 @@ public class OPTICSCluster implements Detector {
     }
 
     /*
-     * apply OPTICS clustering algorithm, save ordered points to tmp file
+     * cluster documents sharing a word, i.e., documents of the same inverted
+     * list, append ordered points to points
+     * 
+     * @param docs all documents(or topics) of the inverted lists
+     * 
+     * @param lists inverted lists of the documents
+     */
+    void cluster(Vector<? extends Document> docs, Vector<InvertedList> lists,
+		 OrderedPoints points) {
+	if (windowMode) {
+	    clearProcessed = false;
+	    Vector<Vector<Document>> groups = partition(docs, lists);
+	    if (threads > 1)
+		parallelCluster(groups, points);
+	    else
+		for (Vector<Document> group : groups)
+		    doOPTICSCluster(group, points);
+	} else {
+	    clearProcessed = true;
+	    for (InvertedList list : lists)
+		doOPTICSCluster(list.docs, points);
+	    points.restoreSupports();
+	}
+    }
+
+    /*
+     * cluster the groups of a window by a fork-join pool. ordered points of
+     * each group are kept by the worker, then appended in the order of
+     * groups, thus the output is the same as the sequential one.
+     * 
+     * @param groups disjoint document groups from {@link #partition}
+     */
+    void parallelCluster(final Vector<Vector<Document>> groups,
+			 OrderedPoints points) {
+	ForkJoinPool pool = new ForkJoinPool(threads);
+
+	// each thread reuses a worker for all its groups
+	final ThreadLocal<OPTICSCluster> workers = new ThreadLocal<OPTICSCluster>() {
+	    protected OPTICSCluster initialValue() {
+		return new OPTICSCluster(OPTICSCluster.this);
+	    }
+	};
+
+	try {
+	    OrderedPoints[] results = new OrderedPoints[groups.size()];
+	    pool.invoke(new ClusterTask(groups, 0, groups.size(), results,
+		    workers));
+	    for (OrderedPoints result : results)
+		points.append(result);
+	} finally {
+	    pool.shutdown();
+	}
+    }
+
+    /*
+     * split the inverted lists into disjoint groups for one pass over the
+     * window. clustering the lists in order, a document is only clustered in
+     * the first list containing it, later lists see it as processed. thus a
+     * group keeps the documents of a list that are in no earlier list, and
+     * clustering the groups gives the same ordered points as clustering the
+     * lists.
+     * 
+     * @return a group for each non-empty list, in the order of lists
+     */
+    Vector<Vector<Document>> partition(Vector<? extends Document> docs,
+				       Vector<InvertedList> lists) {
+	// word id->position of its inverted list
+	TIntIntHashMap listPos = new TIntIntHashMap(lists.size());
+	for (int i = 0; i < lists.size(); i++)
+	    listPos.put(lists.get(i).id, i);
+
+	Vector<Vector<Document>> groups = new Vector<Vector<Document>>(
+		lists.size());
+	for (int i = 0; i < lists.size(); i++)
+	    groups.add(null);
+
+	// lists are filled in the order of docs, so are the groups
+	for (Document doc : docs) {
+	    if (doc.getSupport() == 0 || doc.getWordNum() == 0)
+		continue;
+
+	    int first = lists.size();
+	    int[] ids = doc.getWordIds();
+	    for (int i = 0; i < doc.getWordNum(); i++)
+		first = Math.min(first, listPos.get(ids[i]));
+
+	    Vector<Document> group = groups.get(first);
+	    if (group == null) {
+		group = new Vector<Document>();
+		groups.set(first, group);
+	    }
+	    group.add(doc);
+	}
+
+	Vector<Vector<Document>> ret = new Vector<Vector<Document>>();
+	for (Vector<Document> group : groups)
+	    if (group != null)
+		ret.add(group);
+	return ret;
+    }
+
+    /*
+     * apply OPTICS clustering algorithm, append ordered points to ordered
      * 
      * @param docs documents to be clustered
      * 
-     * @param orderedPointWriter writer for saving the ordered points
+     * @param ordered ordered points of the clustering run
      */
-    void doOPTICSCluster(Vector<Document> docs,
-			 BufferedWriter orderedPointWriter) throws IOException {
+    void doOPTICSCluster(Vector<Document> docs, OrderedPoints ordered) {
 
 	// initial a point for each docuemnt
 	int k = 0;
 	Vector<Point> points = new Vector<Point>(docs.size());
+	processed = new BitSet(docs.size());
 	for (Document doc : docs) {
 	    Point p = new Point(doc, k++);
 	    points.add(p);
+
+	    // processed by an earlier inverted list
+	    if (doc.getSupport() == 0)
+		processed.set(p.id);
 	}
+	search.index(points);
 
 	Vector<Point> neighbor = new Vector<Point>();
 	Vector<Float> neighborDist = new Vector<Float>();
+
+	// the seed heap is drained by every expansion, thus can be reused
+	MinHeap orderedSeed = new MinHeap(points.size());
 	for (Point p : points) {
 
 	    if (!hasProcessed(p)) {
@@ -311,12 +647,11 @@ public class OPTICSCluster implements Detector {
 
 		// noisy points won't be saved
 		if (p.coreDist != UNDEF || p.reachDist != UNDEF)
-		    p.save(orderedPointWriter);
+		    ordered.add(p.doc, p.coreDist, p.reachDist);
 
 		setProcessed(p);
 
 		if (size >= MinPts && !neighbor.isEmpty()) {
-		    MinHeap orderedSeed = new MinHeap(neighbor.size());
 		    updateOrderedSeed(p, neighbor, neighborDist, orderedSeed);
 
 		    while (!orderedSeed.isEmpty()) {
@@ -324,7 +659,7 @@ public class OPTICSCluster implements Detector {
 
 			size = getEpsNeighbor(q, points, neighbor, neighborDist);
 			if (q.coreDist != UNDEF || q.reachDist != UNDEF)
-			    q.save(orderedPointWriter);
+			    ordered.add(q.doc, q.coreDist, q.reachDist);
 			setProcessed(q);
 
 			if (size >= MinPts && !neighbor.isEmpty()) {
@@ -335,8 +670,6 @@ public class OPTICSCluster implements Detector {
 		}
 	    }
 	}
-
-	orderedPointWriter.flush();
     }
 
     /*
@@ -344,7 +677,7 @@ public class OPTICSCluster implements Detector {
      * 
      * @param p current point
      * 
-     * @param vec the set of all points
+     * @param set the set of all points, indexed by the neighbor search
      * 
      * @param neighbor all epsilon neighbors, to be inserted
      * 
@@ -363,7 +696,9 @@ public class OPTICSCluster implements Detector {
 	neighbor.clear();
 	neighborDist.clear();
 
-	for (Point q : set) {
+	search.candidates(p, candidates);
+	for (int i = 0; i < candidates.size(); i++) {
+	    Point q = set.get(candidates.getQuick(i));
 	    if (hasProcessed(q) || p == q)
 		continue;
 	    dist = p.distanceTo(q);
@@ -421,22 +756,25 @@ public class OPTICSCluster implements Detector {
 		orderedSeed.addPoint(p);
 	    } else if (newReachDist < p.reachDist) {
 		p.reachDist = newReachDist;
+		orderedSeed.decreaseKey(p);
 	    }
 	}
 
     }
 
     boolean hasProcessed(Point p) {
-	return p.doc.getSupport() == 0;
+	return processed.get(p.id);
     }
 
     void setProcessed(Point p) {
-	p.doc.clearSupport();
+	processed.set(p.id);
+	if (clearProcessed)
+	    p.doc.clearSupport();
     }
 
     /*
-     * read ordered points from tmp file, assign it to a cluster based on
-     * epsilon threshold
+     * read ordered points from path.orderedPoint, assign it to a cluster
+     * based on epsilon threshold
      * 
      * @param epsilon threshold for OPTICS clustering
      * 
@@ -444,34 +782,151 @@ public class OPTICSCluster implements Detector {
      */
     public Vector<Topic> determineTopics(float epsilon, String path)
 	    throws IOException {
+	return determineTopics(new float[] { epsilon }, path).get(0);
+    }
+
+    /*
+     * read ordered points from path.orderedPoint, assign it to clusters of
+     * each epsilon. only documents in a cluster are loaded from the slot
+     * vectors
+     * 
+     * @return topics of each epsilon
+     */
+    public Vector<Vector<Topic>> determineTopics(float[] epsilons, String path)
+	    throws IOException {
+	OrderedPoints points = OrderedPoints.load(path);
+	if (points == null) {
+	    // previous text format with the documents
+	    BufferedReader in = new BufferedReader(new FileReader(path
+		    + ".orderedPoint"));
+	    String line;
+	    points = new OrderedPoints(1024);
+	    while ((line = in.readLine()) != null) {
+		Point p = new Point(line);
+		points.add(p.doc, p.coreDist, p.reachDist);
+	    }
+	    in.close();
+	} else {
+	    // a point starting or joining a cluster of any epsilon
+	    BitSet needed = new BitSet(points.size());
+	    for (int i = 0; i < points.size(); i++)
+		for (float epsilon : epsilons)
+		    if (points.reachDists[i] <= epsilon
+			    || points.coreDists[i] <= epsilon)
+			needed.set(i);
+
+	    if (!needed.isEmpty()) {
+		Vector<Document> docs = new Vector<Document>(points.size());
+		loadVectors(path, docs, new TLongArrayList(points.size()));
+		points.resolve(docs, needed);
+	    }
+	}
 
-	BufferedReader in = new BufferedReader(new FileReader(path
-		+ ".orderedPoint"));
+	return determineTopics(epsilons, points);
+    }
 
-	String line;
-	Topic tp = null;
-	Vector<Topic> topics = new Vector<Topic>();
-
-	while ((line = in.readLine()) != null) {
-	    Point p = new Point(line);
-	    if (p.reachDist > epsilon) {
-		if (p.coreDist <= epsilon) {
-		    tp = new Topic();
-		    tp.addDoc(p.doc);
-		    topics.add(tp);
+    /*
+     * assign ordered points to clusters based on epsilon threshold
+     * 
+     * @param epsilon threshold for OPTICS clustering
+     * 
+     * @return topics sorted by its popularity in descending order
+     */
+    public Vector<Topic> determineTopics(float epsilon, OrderedPoints points) {
+	return determineTopics(new float[] { epsilon }, points).get(0);
+    }
+
+    /*
+     * assign ordered points to clusters of each epsilon in one scan over the
+     * reachability plot
+     * 
+     * @return topics of each epsilon, sorted by popularity in descending
+     * order
+     */
+    public Vector<Vector<Topic>> determineTopics(float[] epsilons,
+	    OrderedPoints points) {
+	Topic[] current = new Topic[epsilons.length];
+	Vector<Vector<Topic>> topics = new Vector<Vector<Topic>>(
+		epsilons.length);
+	for (int k = 0; k < epsilons.length; k++)
+	    topics.add(new Vector<Topic>());
+
+	for (int i = 0; i < points.size(); i++) {
+	    float reachDist = points.reachDists[i];
+	    float coreDist = points.coreDists[i];
+	    for (int k = 0; k < epsilons.length; k++) {
+		if (reachDist > epsilons[k]) {
+		    if (coreDist <= epsilons[k]) {
+			current[k] = new Topic();
+			current[k].addDoc(points.docs[i]);
+			topics.get(k).add(current[k]);
+		    }
+		} else {
+		    current[k].addDoc(points.docs[i]);
 		}
-	    } else {
-		tp.addDoc(p.doc);
 	    }
 	}
 
 	// sort topics according to support
-	Collections.sort(topics);
-
-	in.close();
+	for (Vector<Topic> tps : topics)
+	    Collections.sort(tps);
 	return topics;
     }
 
+    /*
+     * cluster the ordered points of each slot again by each epsilon, slots
+     * are done in parallel by the configured threads. with one epsilon the
+     * topics of a slot replace path.topic, otherwise they are saved in
+     * sweep/epsilon/ of the slot directory
+     * 
+     * @param paths slot file paths(without suffix)
+     */
+    public void recluster(Vector<String> paths, final float[] epsilons)
+	    throws IOException {
+	ExecutorService pool = Executors.newFixedThreadPool(Math.max(threads,
+		1));
+	Vector<Future<?>> tasks = new Vector<Future<?>>();
+	for (final String path : paths) {
+	    final OPTICSCluster worker = new OPTICSCluster(this);
+	    worker.parser = parser.newParser();
+	    // the loaded dictionary is read only
+	    worker.parser.dict = parser.dict;
+	    tasks.add(pool.submit(new Callable<Object>() {
+		public Object call() throws IOException {
+		    Vector<Vector<Topic>> topics = worker.determineTopics(
+			    epsilons, path);
+		    for (int k = 0; k < epsilons.length; k++) {
+			String out = path;
+			if (epsilons.length > 1) {
+			    File f = new File(path);
+			    File dir = new File(f.getParentFile(), "sweep/"
+				    + epsilons[k]);
+			    dir.mkdirs();
+			    out = new File(dir, f.getName()).getPath();
+			}
+			worker.saveTopics(topics.get(k), out);
+			logger.info(path + ": " + topics.get(k).size()
+				+ " topics for epsilon " + epsilons[k]);
+		    }
+		    return null;
+		}
+	    }));
+	}
+
+	try {
+	    for (Future<?> task : tasks)
+		task.get();
+	} catch (InterruptedException e) {
+	    throw new IOException(e);
+	} catch (ExecutionException e) {
+	    if (e.getCause() instanceof IOException)
+		throw (IOException) e.getCause();
+	    throw new RuntimeException(e.getCause());
+	} finally {
+	    pool.shutdown();
+	}
+    }
+
     /*
      * save topics into disk
      * 
@@ -481,16 +936,21 @@ public class OPTICSCluster implements Detector {
     public void saveTopics(Vector<Topic> topics, String path)
 	    throws IOException {
 
-	BufferedWriter out = new BufferedWriter(new FileWriter(path + ".topic"));
-	for (Topic tp : topics) {
-	    // generate popular words of the topic
+	// generate popular words of the topics
+	for (Topic tp : topics)
 	    tp.aggregateDocs();
-	    out.write(tp.toString());
-	    out.newLine();
-	}
-	out.flush();
-	out.close();
+	TopicStore.write(path, topics);
+    }
+
+    /*
+     * @return number of topics shown for a query
+     */
+    public int getTopK() {
+	return TOPK;
+    }
 
+    public void setTopK(int topK) {
+	TOPK = topK;
     }
 
     /*
@@ -506,71 +966,108 @@ public class OPTICSCluster implements Detector {
 
     public String generateHtmlTopics(Vector<Topic> topics, Vector<String> paths)
 	    throws NumberFormatException, IOException {
+	StringWriter out = new StringWriter();
+	writeHtmlTopics(topics, paths, out);
+	return out.toString();
+    }
 
-	HashMap<Integer, DocumentRandomAccess> docAccess = new HashMap<Integer, DocumentRandomAccess>(
-		paths.size() * 2);
-
-	// init random accessors
-	for (String path : paths) {
-	    DocumentRandomAccess docAcs = new DocumentRandomAccess(path);
-	    docAcs.startRead(path);
-
-	    File f = new File(path);
-	    int slot = Integer.parseInt(f.getName());
-	    docAccess.put(slot, docAcs);
-	}
-	
-
-	String html = "";
-	for (int i = 0; i < Math.min(topics.size(), TOPK); i++) {
+    /*
+     * write the html of topics to out topic by topic. the popular documents
+     * of all shown topics are read at once before, see
+     * {@link #readPopularDocs}
+     */
+    public void writeHtmlTopics(Vector<Topic> topics, Vector<String> paths,
+	    Writer out) throws IOException {
+
+	int topicN = Math.min(topics.size(), TOPK);
+	// popular documents of each topic in the order they are shown, the
+	// first ones are shown before "show all"
+	Vector<Document[]> popDocs = new Vector<Document[]>(topicN);
+	int[] firstN = new int[topicN];
+	for (int i = 0; i < topicN; i++) {
 	    Topic tp = topics.get(i);
 
 	    // generate popular words of the topic
 	    if (tp.getDocuments() != null)
 		tp.aggregateDocs();
 
-	    html += "<div class='topic' id='" + i + "'>";
-	    html += "<span class='support' >Support: " + tp.getSupport()
-		    + "</span><br/>";
-	    html += "<a href='#' onclick='show(" + i + ")'>show all</a>";
-	    html += "<div id='" + i + "-first'>";
-	    
+	    Vector<Document> docs = new Vector<Document>();
 	    int end = tp.getPopularDocs().size() > 3 ? 3 : tp.getPopularDocs()
 		    .size();
-	    for (int k = 0; k < end; k++) {
-		Document doc = tp.getPopularDocs().poll();
-		int slot = doc.getSlot();
-		String raw = docAccess.get(slot).readDocument(doc.getId());
-
-		raw = docAccess.get(slot).readDocument(doc.getId());
-		html += html4topic(raw);
-		// $html.='<li>'.$jsondoc.'</li>';
-	    }
-	    html += "</div><div class ='second' id='" + i + "-second'>";
-
-	    for (int k = end; k < tp.getPopularDocs().size(); k++) {
-		Document doc = tp.getPopularDocs().poll();
-		int slot = doc.getSlot();
-		String raw = docAccess.get(slot).readDocument(doc.getId());
+	    for (int k = 0; k < end; k++)
+		docs.add(tp.getPopularDocs().poll());
+	    for (int k = end; k < tp.getPopularDocs().size(); k++)
+		docs.add(tp.getPopularDocs().poll());
+	    popDocs.add(docs.toArray(new Document[docs.size()]));
+	    firstN[i] = end;
+	}
+	String[][] raws = readPopularDocs(popDocs, paths);
 
-		raw = docAccess.get(slot).readDocument(doc.getId());
-		html += html4topic(raw);
+	for (int i = 0; i < topicN; i++) {
+	    Topic tp = topics.get(i);
+	    out.write("<div class='topic' id='" + i + "'>");
+	    out.write("<span class='support' >Support: " + tp.getSupport()
+		    + "</span><br/>");
+	    Vector<String> words = topicWords(tp);
+	    if (!words.isEmpty()) {
+		out.write("<span class='words'>");
+		for (String word : words) {
+		    out.write(word);
+		    out.write(' ');
+		}
+		out.write("</span><br/>");
 	    }
+	    out.write("<a href='#' onclick='show(" + i + ")'>show all</a>");
+	    out.write("<div id='" + i + "-first'>");
+	    for (int k = 0; k < firstN[i]; k++)
+		out.write(html4topic(raws[i][k]));
+	    out.write("</div><div class ='second' id='" + i + "-second'>");
+	    for (int k = firstN[i]; k < raws[i].length; k++)
+		out.write(html4topic(raws[i][k]));
+	    out.write("</div></div>");
+	}
+    }
 
-	    html += "</div></div>";
-
+    /*
+     * read the raw popular documents of topics by one batch, documents of a
+     * slot are read in the order of their offsets and slots are read in
+     * parallel by the read pool if set
+     *
+     * @param popDocs popular documents of each topic
+     * 
+     * @return raw documents of each topic, in the order of popDocs
+     */
+    String[][] readPopularDocs(Vector<Document[]> popDocs,
+	    Vector<String> paths) throws IOException {
+	DocumentBatch batch = new DocumentBatch();
+	for (Document[] docs : popDocs)
+	    for (Document doc : docs)
+		batch.add(doc.getSlot(), doc.getId());
+
+	String[] raws;
+	HashMap<Integer, DocumentRandomAccess> docAccess = openAccessors(paths);
+	try {
+	    raws = batch.read(docAccess, readPool);
+	} finally {
+	    closeAccessors(docAccess);
 	}
 
-	for (DocumentRandomAccess docAcs : docAccess.values())
-	    docAcs.endRead();
-	return html;
+	String[][] topicRaws = new String[popDocs.size()][];
+	int next = 0;
+	for (int i = 0; i < popDocs.size(); i++) {
+	    topicRaws[i] = new String[popDocs.get(i).length];
+	    System.arraycopy(raws, next, topicRaws[i], 0, topicRaws[i].length);
+	    next += topicRaws[i].length;
+	}
+	return topicRaws;
     }
 
     String html4topic(String raw) {	
-	JSONObject obj = (JSONObject) JSONValue.parse(raw);
-	long id = (Long) obj.get("id");
-	String text = (String) obj.get("text");
-	long time = (Long) obj.get("time");
+	if (!rawScanner.scan(raw))
+	    throw new IllegalArgumentException(raw);
+	long id = rawScanner.getLong(RAW_ID);
+	String text = rawScanner.getString(RAW_TEXT);
+	long time = rawScanner.getLong(RAW_TIME);
 	java.util.Date date = new java.util.Date();
 	date.setTime(time);
 
@@ -581,103 +1078,230 @@ public class OPTICSCluster implements Detector {
     /*
      * encode the topics into json string
      */
-    @SuppressWarnings("unchecked")
     public String generateJsonTopics(Vector<Topic> topics, Vector<String> paths)
 	    throws NumberFormatException, IOException {
+	StringWriter out = new StringWriter();
+	writeJsonTopics(topics, paths, out);
+	return out.toString();
+    }
 
-	HashMap<Integer, DocumentRandomAccess> docAccess = new HashMap<Integer, DocumentRandomAccess>(
-		paths.size() * 2);
-
-	// init random accessors
-	for (String path : paths) {
-	    DocumentRandomAccess docAcs = new DocumentRandomAccess(path);
-	    docAcs.startRead(path);
-
-	    File f = new File(path);
-	    int slot = Integer.parseInt(f.getName());
-	    docAccess.put(slot, docAcs);
-	}
-
-	
-	JSONArray jsonary = new JSONArray();
+    /*
+     * write the topics to out as a json array, an object per topic with its
+     * support(pop), words and raw popular documents(docs). like
+     * {@link #writeHtmlTopics} the popular documents are read at once before
+     */
+    public void writeJsonTopics(Vector<Topic> topics, Vector<String> paths,
+	    Writer out) throws IOException {
 
-	for (int i = 0; i < Math.min(topics.size(), TOPK); i++) {
+	int topicN = Math.min(topics.size(), TOPK);
+	Vector<Document[]> popDocs = new Vector<Document[]>(topicN);
+	for (int i = 0; i < topicN; i++) {
 	    Topic tp = topics.get(i);
 
 	    // generate popular words of the topic
 	    if (tp.getDocuments() != null)
 		tp.aggregateDocs();
 
-	    JSONObject obj = new JSONObject();
-	    obj.put("pop", tp.getSupport());
-
-	    // System.out.println("popularity: "+tp.getSupport());
-
-	    JSONArray popDocs = new JSONArray();
-	    for (Document doc : tp.getPopularDocs()) {
-		String raw = docAccess.get(tp.getSlot()).readDocument(
-			doc.getId());
-		popDocs.add(raw);
+	    popDocs.add(tp.getPopularDocs().toArray(
+		    new Document[tp.getPopularDocs().size()]));
+	}
+	String[][] raws = readPopularDocs(popDocs, paths);
 
-		// System.out.println(raw);
+	out.write('[');
+	for (int i = 0; i < topicN; i++) {
+	    Topic tp = topics.get(i);
+	    if (i > 0)
+		out.write(',');
+	    out.write("{\"pop\":" + tp.getSupport() + ",\"words\":[");
+	    boolean first = true;
+	    for (String word : topicWords(tp)) {
+		if (!first)
+		    out.write(',');
+		writeJsonString(word, out);
+		first = false;
 	    }
+	    out.write("],\"docs\":[");
+	    for (int k = 0; k < raws[i].length; k++) {
+		if (k > 0)
+		    out.write(',');
+		writeJsonString(raws[i][k], out);
+	    }
+	    out.write("]}");
+	}
+	out.write(']');
+    }
 
-	    obj.put("docs", popDocs);
-	    jsonary.add(obj);
+    static void writeJsonString(String str, Writer out) throws IOException {
+	if (str == null) {
+	    out.write("null");
+	    return;
 	}
-	for (DocumentRandomAccess docAcs : docAccess.values())
-	    docAcs.endRead();
-	return jsonary.toJSONString();
+	out.write('"');
+	out.write(JSONValue.escape(str));
+	out.write('"');
     }
 
     /*
      * maintain the ordredSeed in increasing order based on reachability
-     * distance
+     * distance. it is a binary heap addressed by point id, thus insert, pop
+     * and decrease key are O(log n).
+     * 
+     * ties are broken by the rank of a point, which is its position in the
+     * seed list of the previous linear scan implementation: new points are
+     * appended, except the first one after a pop which takes the place(rank)
+     * of the popped point. this keeps the ordered points unchanged.
      */
     class MinHeap {
-	Vector<Point> points;
+	Point[] heap;
+	int size;
+
+	// point id->position in heap, -1 if not in heap
+	int[] pos;
 
-	// keep the position of previous min point, later inserted point can be
-	// placed here
-	int vacantPos;
+	// point id->rank for tie breaking
+	int[] rank;
+	int nextRank;
 
-	public MinHeap(int size) {
-	    points = new Vector<Point>(size);
-	    vacantPos = -1;
+	// rank of the last popped point, later inserted point can take it
+	int vacantRank;
+
+	/*
+	 * @param capacity number of points of the clustering run
+	 */
+	public MinHeap(int capacity) {
+	    heap = new Point[capacity];
+	    pos = new int[capacity];
+	    rank = new int[capacity];
+	    for (int i = 0; i < capacity; i++)
+		pos[i] = -1;
+	    size = 0;
+	    nextRank = 0;
+	    vacantRank = -1;
 	}
 
 	public void addPoint(Point point) {
-	    if (vacantPos >= 0) {
-		points.set(vacantPos, point);
-		vacantPos = -1;
+	    if (vacantRank >= 0) {
+		rank[point.id] = vacantRank;
+		vacantRank = -1;
 	    } else
-		points.add(point);
+		rank[point.id] = nextRank++;
+
+	    heap[size] = point;
+	    pos[point.id] = size;
+	    siftUp(size++);
+	}
+
+	/*
+	 * restore the heap after the reachability distance of point has been
+	 * decreased
+	 */
+	public void decreaseKey(Point point) {
+	    int i = pos[point.id];
+	    if (i >= 0)
+		siftUp(i);
 	}
 
 	public Point getMinPoint() {
+	    Point min = heap[0];
+	    pos[min.id] = -1;
+	    vacantRank = rank[min.id];
+
+	    size--;
+	    if (size > 0) {
+		heap[0] = heap[size];
+		pos[heap[0].id] = 0;
+		siftDown(0);
+	    }
+	    heap[size] = null;
+
+	    return min;
+	}
+
+	public boolean isEmpty() {
+	    return size == 0;
+	}
 
-	    // remove previous min point by place the last element at its
-	    // position
-	    if (vacantPos >= 0) {
-		points.set(vacantPos, points.lastElement());
-		points.remove(points.lastElement());
+	boolean less(Point a, Point b) {
+	    if (a.reachDist != b.reachDist)
+		return a.reachDist < b.reachDist;
+	    return rank[a.id] < rank[b.id];
+	}
+
+	void siftUp(int i) {
+	    Point p = heap[i];
+	    while (i > 0) {
+		int parent = (i - 1) >> 1;
+		if (!less(p, heap[parent]))
+		    break;
+		heap[i] = heap[parent];
+		pos[heap[i].id] = i;
+		i = parent;
 	    }
+	    heap[i] = p;
+	    pos[p.id] = i;
+	}
 
-	    float minReachDist = points.get(0).reachDist;
-	    vacantPos = 0;
-	    for (int i = 1; i < points.size(); i++) {
-		if (minReachDist > points.get(i).reachDist) {
-		    minReachDist = points.get(i).reachDist;
-		    vacantPos = i;
-		}
+	void siftDown(int i) {
+	    Point p = heap[i];
+	    while (true) {
+		int child = 2 * i + 1;
+		if (child >= size)
+		    break;
+		if (child + 1 < size && less(heap[child + 1], heap[child]))
+		    child++;
+		if (!less(heap[child], p))
+		    break;
+		heap[i] = heap[child];
+		pos[heap[i].id] = i;
+		i = child;
 	    }
+	    heap[i] = p;
+	    pos[p.id] = i;
+	}
+    }
 
-	    return points.get(vacantPos);
+    /*
+     * cluster groups [start,end) of a window, the ordered points of group i
+     * are kept in results[i]
+     */
+    class ClusterTask extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+
+	// groups having less documents are clustered by one task
+	static final int MIN_TASK_DOCS = 1000;
+
+	Vector<Vector<Document>> groups;
+	int start, end;
+	OrderedPoints[] results;
+	ThreadLocal<OPTICSCluster> workers;
+
+	public ClusterTask(Vector<Vector<Document>> groups, int start,
+			   int end, OrderedPoints[] results,
+			   ThreadLocal<OPTICSCluster> workers) {
+	    this.groups = groups;
+	    this.start = start;
+	    this.end = end;
+	    this.results = results;
+	    this.workers = workers;
 	}
 
-	public boolean isEmpty() {
-	    // must check both two conditions
-	    return points.isEmpty() || (points.size() == 1 && vacantPos >= 0);
+	protected void compute() {
+	    int docN = 0;
+	    for (int i = start; i < end && docN < MIN_TASK_DOCS; i++)
+		docN += groups.get(i).size();
+
+	    if (end - start > 1 && docN >= MIN_TASK_DOCS) {
+		int mid = (start + end) >>> 1;
+		invokeAll(new ClusterTask(groups, start, mid, results, workers),
+			new ClusterTask(groups, mid, end, results, workers));
+		return;
+	    }
+
+	    OPTICSCluster worker = workers.get();
+	    for (int i = start; i < end; i++) {
+		results[i] = new OrderedPoints(groups.get(i).size());
+		worker.doOPTICSCluster(groups.get(i), results[i]);
+	    }
 	}
     }
 
@@ -750,12 +1374,6 @@ public class OPTICSCluster implements Detector {
 	    else
 		return 1;
 	}
-
-	void save(BufferedWriter out) throws IOException {
-	    String ret = coreDist + "," + reachDist + "," + doc.toString();
-	    out.write(ret);
-	    out.newLine();
-	}
     }
 
     /*
@@ -0,0 +1,204 @@
+package topicDetector;
+
+import gnu.trove.TLongObjectHashMap;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+
+import util.Document;
+
+/*
+ * ordered points of an OPTICS run kept in memory: the document of each point
+ * with its support when it was ordered, and its core and reachability
+ * distance, in the order of the run.
+ *
+ * the points of a slot are saved in a binary file(path.orderedPoint):
+ * magic, version, point number n, n document ids, n supports, n core
+ * distances and n reachability distances. the distances are the
+ * reachability plot, topics of any epsilon are found by scanning them, and
+ * only the documents of topics are resolved from the slot vectors.
+ */
+public class OrderedPoints {
+    static final int MAGIC = 0x5442504f;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 12;
+
+    Document[] docs;
+    int[] supports;
+    float[] coreDists;
+    float[] reachDists;
+    int size;
+
+    // document ids of points loaded from a file, see {@link #resolve}
+    long[] ids;
+
+    public OrderedPoints(int capacity) {
+	capacity = Math.max(capacity, 16);
+	docs = new Document[capacity];
+	supports = new int[capacity];
+	coreDists = new float[capacity];
+	reachDists = new float[capacity];
+    }
+
+    public void add(Document doc, float coreDist, float reachDist) {
+	if (size == docs.length)
+	    grow(size + 1);
+	docs[size] = doc;
+	supports[size] = doc.getSupport();
+	coreDists[size] = coreDist;
+	reachDists[size] = reachDist;
+	size++;
+    }
+
+    /*
+     * append the points of other after the points of this
+     */
+    public void append(OrderedPoints other) {
+	if (size + other.size > docs.length)
+	    grow(size + other.size);
+	System.arraycopy(other.docs, 0, docs, size, other.size);
+	System.arraycopy(other.supports, 0, supports, size, other.size);
+	System.arraycopy(other.coreDists, 0, coreDists, size, other.size);
+	System.arraycopy(other.reachDists, 0, reachDists, size, other.size);
+	size += other.size;
+    }
+
+    void grow(int min) {
+	int capacity = Math.max(min, docs.length * 2);
+	docs = Arrays.copyOf(docs, capacity);
+	supports = Arrays.copyOf(supports, capacity);
+	coreDists = Arrays.copyOf(coreDists, capacity);
+	reachDists = Arrays.copyOf(reachDists, capacity);
+    }
+
+    /*
+     * set the support of each document back to its support when it was
+     * ordered, clustering each inverted list clears the support of processed
+     * documents
+     */
+    public void restoreSupports() {
+	for (int i = 0; i < size; i++)
+	    docs[i].setSupport(supports[i]);
+    }
+
+    public int size() {
+	return size;
+    }
+
+    public Document getDoc(int i) {
+	return docs[i];
+    }
+
+    public float getCoreDist(int i) {
+	return coreDists[i];
+    }
+
+    public float getReachDist(int i) {
+	return reachDists[i];
+    }
+
+    /*
+     * save the points into path.orderedPoint, through a temporary file so
+     * that a reader never maps a partially written file
+     */
+    public void saveBinary(String path) throws IOException {
+	File f = new File(path + ".orderedPoint");
+	File tmp = new File(path + ".orderedPoint.tmp");
+	DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+		new FileOutputStream(tmp), 1 << 16));
+	out.writeInt(MAGIC);
+	out.writeInt(VERSION);
+	out.writeInt(size);
+	for (int i = 0; i < size; i++)
+	    out.writeLong(docs[i].getId());
+	for (int i = 0; i < size; i++)
+	    out.writeInt(supports[i]);
+	for (int i = 0; i < size; i++)
+	    out.writeFloat(coreDists[i]);
+	for (int i = 0; i < size; i++)
+	    out.writeFloat(reachDists[i]);
+	out.flush();
+	out.close();
+	if (!tmp.renameTo(f))
+	    throw new IOException("failed to replace " + f);
+    }
+
+    /*
+     * load the points of path.orderedPoint without their documents
+     *
+     * @return null if the file is in the previous text format
+     */
+    public static OrderedPoints load(String path) throws IOException {
+	RandomAccessFile raf = new RandomAccessFile(path + ".orderedPoint",
+		"r");
+	try {
+	    if (raf.length() < HEADER_SIZE || raf.readInt() != MAGIC)
+		return null;
+	    if (raf.readInt() != VERSION)
+		throw new IOException("unknown ordered point version " + path);
+	    int n = raf.readInt();
+	    MappedByteBuffer buf = raf.getChannel().map(
+		    FileChannel.MapMode.READ_ONLY, HEADER_SIZE, 20L * n);
+
+	    OrderedPoints points = new OrderedPoints(n);
+	    points.ids = new long[n];
+	    buf.asLongBuffer().get(points.ids);
+	    buf.position(8 * n);
+	    buf.asIntBuffer().get(points.supports, 0, n);
+	    buf.position(12 * n);
+	    buf.asFloatBuffer().get(points.coreDists, 0, n);
+	    buf.position(16 * n);
+	    buf.asFloatBuffer().get(points.reachDists, 0, n);
+	    points.size = n;
+	    return points;
+	} finally {
+	    raf.close();
+	}
+    }
+
+    /*
+     * set the documents of the needed points of a loaded file by their ids,
+     * a document gets the support of its point
+     *
+     * @param slotDocs documents loaded from the slot vectors
+     */
+    public void resolve(Collection<Document> slotDocs, BitSet needed)
+	    throws IOException {
+	TLongObjectHashMap<Document> byId = new TLongObjectHashMap<Document>(
+		slotDocs.size());
+	for (Document doc : slotDocs)
+	    byId.put(doc.getId(), doc);
+
+	for (int i = needed.nextSetBit(0); i >= 0; i = needed.nextSetBit(i + 1)) {
+	    Document doc = byId.get(ids[i]);
+	    if (doc == null)
+		throw new IOException("no vector of document " + ids[i]);
+	    doc.setSupport(supports[i]);
+	    docs[i] = doc;
+	}
+    }
+
+    /*
+     * save the points in the previous text format of .orderedPoint files, a
+     * line of coreDist,reachDist,document per point. it is kept for
+     * debugging
+     */
+    public void save(BufferedWriter out) throws IOException {
+	for (int i = 0; i < size; i++) {
+	    out.write(coreDists[i] + "," + reachDists[i] + ","
+		    + docs[i].toString());
+	    out.newLine();
+	}
+	out.flush();
+    }
+}
@@ -0,0 +1,167 @@
+package topicDetector;
+
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntIntHashMap;
+import gnu.trove.TIntObjectHashMap;
+
+import java.util.Arrays;
+import java.util.Vector;
+
+import topicDetector.OPTICSCluster.Point;
+import util.Document;
+
+/*
+ * similarity join style candidate generation(AllPairs/PPJoin). two points
+ * within max epsilon must have cosine similarity above t=1-MaxEpsilon, thus
+ * 
+ * 1. prefix filtering: words of each point are ordered globally(rare words
+ * first), and only the prefix whose remaining suffix can not contribute t is
+ * indexed. two similar points must share a word in both prefixes.
+ * 
+ * 2. length filtering: the similarity is bounded by l1(x)*maxWeight(y), pairs
+ * whose bound is below t are dropped without being scored.
+ */
+public class PrefixNeighborSearch implements NeighborSearch {
+
+    // absorb float rounding differences between the bounds and the cosine
+    static final float SLACK = 1e-4f;
+
+    // similarity threshold for the filters
+    final float threshold;
+
+    int size;
+
+    // no filtering is safe if some weight is negative or threshold <= 0
+    boolean exhaustive;
+
+    // word id->ids of points having the word in its prefix
+    TIntObjectHashMap<TIntArrayList> postings;
+
+    // prefix words of each point
+    int[][] prefix;
+
+    float[] l1;
+    float[] maxWeight;
+
+    // mark points visited by current query
+    int[] stamp;
+    int query;
+
+    public PrefixNeighborSearch(float maxEpsilon) {
+	threshold = 1f - maxEpsilon - SLACK;
+    }
+
+    public void index(Vector<Point> points) {
+	size = points.size();
+	exhaustive = threshold <= 0f;
+	postings = new TIntObjectHashMap<TIntArrayList>();
+	prefix = new int[size][];
+	l1 = new float[size];
+	maxWeight = new float[size];
+	stamp = new int[size];
+	query = 0;
+
+	// document frequency decides the global word order
+	TIntIntHashMap df = new TIntIntHashMap();
+	float maxNorm = 0f;
+	for (Point p : points) {
+	    float norm = 0f;
+	    int[] ids = p.doc.getWordIds();
+	    float[] weights = p.doc.getWeights();
+	    for (int k = 0; k < p.doc.getWordNum(); k++) {
+		df.adjustOrPutValue(ids[k], 1, 1);
+		if (weights[k] < 0f)
+		    exhaustive = true;
+		norm += weights[k] * weights[k];
+	    }
+	    maxNorm = Math.max(maxNorm, (float) Math.sqrt(norm));
+	}
+
+	if (exhaustive)
+	    return;
+
+	for (int i = 0; i < size; i++) {
+	    Document doc = points.get(i).doc;
+	    int n = doc.getWordNum();
+	    int[] ids = new int[n];
+	    float[] weights = new float[n];
+	    long[] keys = new long[n];
+
+	    // sort words by (df, word id), a total order shared by all points
+	    // whatever the order of their vectors. the id is masked so that it
+	    // never carries into the df bits
+	    for (int k = 0; k < n; k++) {
+		int id = doc.getWordIds()[k];
+		keys[k] = ((long) df.get(id) << 32) | (id & 0xffffffffL);
+	    }
+	    Arrays.sort(keys);
+	    for (int k = 0; k < n; k++) {
+		ids[k] = (int) keys[k];
+		weights[k] = weightOf(doc, ids[k]);
+		l1[i] += weights[k];
+		maxWeight[i] = Math.max(maxWeight[i], weights[k]);
+	    }
+
+	    // shortest prefix whose suffix satisfies |suffix|*maxNorm<threshold
+	    int end = n;
+	    float suffix = 0f;
+	    while (end > 0) {
+		float next = suffix + weights[end - 1] * weights[end - 1];
+		if ((float) Math.sqrt(next) * maxNorm >= threshold)
+		    break;
+		suffix = next;
+		end--;
+	    }
+
+	    prefix[i] = new int[end];
+	    for (int k = 0; k < end; k++) {
+		prefix[i][k] = ids[k];
+		TIntArrayList list = postings.get(ids[k]);
+		if (list == null) {
+		    list = new TIntArrayList();
+		    postings.put(ids[k], list);
+		}
+		list.add(i);
+	    }
+	}
+    }
+
+    // word vectors are short, a scan is cheaper than a map
+    static float weightOf(Document doc, int id) {
+	for (int k = 0; k < doc.getWordNum(); k++)
+	    if (doc.getWordIds()[k] == id)
+		return doc.getWeights()[k];
+	return 0f;
+    }
+
+    public void candidates(Point p, TIntArrayList candidates) {
+	candidates.clear();
+
+	if (exhaustive) {
+	    for (int i = 0; i < size; i++)
+		candidates.add(i);
+	    return;
+	}
+
+	query++;
+	int x = p.id;
+	stamp[x] = query;
+	for (int word : prefix[x]) {
+	    TIntArrayList list = postings.get(word);
+	    for (int k = 0; k < list.size(); k++) {
+		int y = list.getQuick(k);
+		if (stamp[y] == query)
+		    continue;
+		stamp[y] = query;
+
+		// length filtering
+		if (l1[x] * maxWeight[y] < threshold
+			|| l1[y] * maxWeight[x] < threshold)
+		    continue;
+		candidates.add(y);
+	    }
+	}
+
+	candidates.sort();
+    }
+}
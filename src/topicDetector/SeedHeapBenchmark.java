@@ -0,0 +1,131 @@
+package topicDetector;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Vector;
+
+import topicDetector.OPTICSCluster.Point;
+import util.Configure;
+import util.Document;
+
+/*
+ * replay the seed operations of a dense OPTICS expansion(insert, decrease
+ * key, pop) on {@link OPTICSCluster.MinHeap} and on the previous linear scan
+ * seed list, check that both pop points in the same order and compare time.
+ * 
+ * Usage: SeedHeapBenchmark [seedNum]
+ */
+public class SeedHeapBenchmark {
+
+    public static void main(String[] args) throws Exception {
+	int seedN = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+
+	Configure conf = new Configure("config/config.xml");
+	OPTICSCluster optics = new OPTICSCluster(conf);
+
+	Vector<Point> points = new Vector<Point>(seedN);
+	for (int i = 0; i < seedN; i++)
+	    points.add(optics.new Point(new Document(i, 1, 0), i));
+
+	long start = System.currentTimeMillis();
+	int[] heapOrder = replay(optics, points, optics.new MinHeap(seedN),
+		null);
+	long heapTime = System.currentTimeMillis() - start;
+
+	start = System.currentTimeMillis();
+	int[] scanOrder = replay(optics, points, null, new ScanHeap(seedN));
+	long scanTime = System.currentTimeMillis() - start;
+
+	System.out.println("MinHeap: " + heapTime + " ms, linear scan: "
+		+ scanTime + " ms, " + seedN + " seeds");
+	if (!Arrays.equals(heapOrder, scanOrder))
+	    System.out.println("pop order differs!");
+    }
+
+    /*
+     * every pop is followed by a few new seeds and decreased seeds, the
+     * reachability distances are rounded so that ties are frequent
+     */
+    static int[] replay(OPTICSCluster optics, Vector<Point> points,
+			OPTICSCluster.MinHeap heap, ScanHeap scan) {
+	Random rand = new Random(3);
+	for (Point p : points)
+	    p.reachDist = optics.UNDEF;
+
+	int[] order = new int[points.size()];
+	int added = 0, popped = 0;
+	while (popped < points.size()) {
+	    float coreDist = Math.round(rand.nextFloat() * 50) / 100f;
+	    int newN = added == 0 ? 64 : rand.nextInt(3);
+	    for (int k = 0; k < newN && added < points.size(); k++) {
+		Point p = points.get(added++);
+		p.reachDist = Math.max(coreDist,
+			Math.round(rand.nextFloat() * 70) / 100f);
+		if (heap != null)
+		    heap.addPoint(p);
+		else
+		    scan.addPoint(p);
+	    }
+	    for (int k = 0; k < 2 && popped < added - 1; k++) {
+		Point p = points.get(popped + rand.nextInt(added - popped));
+		float reachDist = Math.max(coreDist,
+			Math.round(rand.nextFloat() * 70) / 100f);
+		if (p.reachDist != optics.UNDEF && reachDist < p.reachDist) {
+		    p.reachDist = reachDist;
+		    if (heap != null)
+			heap.decreaseKey(p);
+		}
+	    }
+
+	    boolean empty = heap != null ? heap.isEmpty() : scan.isEmpty();
+	    if (empty && added < points.size())
+		continue;
+	    Point p = heap != null ? heap.getMinPoint() : scan.getMinPoint();
+	    p.reachDist = optics.UNDEF;
+	    order[popped++] = p.id;
+	}
+	return order;
+    }
+
+    /*
+     * the previous seed list, the minimum is found by a linear scan
+     */
+    static class ScanHeap {
+	Vector<Point> points;
+	int vacantPos;
+
+	ScanHeap(int size) {
+	    points = new Vector<Point>(size);
+	    vacantPos = -1;
+	}
+
+	void addPoint(Point point) {
+	    if (vacantPos >= 0) {
+		points.set(vacantPos, point);
+		vacantPos = -1;
+	    } else
+		points.add(point);
+	}
+
+	Point getMinPoint() {
+	    if (vacantPos >= 0) {
+		points.set(vacantPos, points.lastElement());
+		points.remove(points.lastElement());
+	    }
+
+	    float minReachDist = points.get(0).reachDist;
+	    vacantPos = 0;
+	    for (int i = 1; i < points.size(); i++) {
+		if (minReachDist > points.get(i).reachDist) {
+		    minReachDist = points.get(i).reachDist;
+		    vacantPos = i;
+		}
+	    }
+	    return points.get(vacantPos);
+	}
+
+	boolean isEmpty() {
+	    return points.isEmpty() || (points.size() == 1 && vacantPos >= 0);
+	}
+    }
+}
@@ -1,5 +1,9 @@
 package topicDetector;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
@@ -115,12 +119,92 @@ public class Topic extends Document {
 	return tp;
     }
 
+    /*
+     * @return bytes of the topic encoded by {@link #write}
+     */
+    int encodedSize() {
+	return 4 + 8 + 4 + 8 * wordN + 4 + 20 * popularDocs.size();
+    }
+
+    /*
+     * encode the topic in binary: support, time, word number, word ids and
+     * weights, popular document number, id, support and time of each
+     * popular document. popular documents are referred by id, their text is
+     * read from the slot of their time
+     */
+    void write(DataOutputStream out) throws IOException {
+	out.writeInt(support);
+	out.writeLong(time);
+	out.writeInt(wordN);
+	for (int i = 0; i < wordN; i++)
+	    out.writeInt(wordIds[i]);
+	for (int i = 0; i < wordN; i++)
+	    out.writeFloat(weights[i]);
+	out.writeInt(popularDocs.size());
+	for (Document d : popularDocs) {
+	    out.writeLong(d.getId());
+	    out.writeInt(d.getSupport());
+	    out.writeLong(d.getTime());
+	}
+    }
+
+    /*
+     * decode a topic encoded by {@link #write} from the position of buf
+     */
+    static Topic read(ByteBuffer buf) {
+	int support = buf.getInt();
+	long time = buf.getLong();
+	int n = buf.getInt();
+	int[] ids = new int[n];
+	float[] weights = new float[n];
+	for (int i = 0; i < n; i++)
+	    ids[i] = buf.getInt();
+	for (int i = 0; i < n; i++)
+	    weights[i] = buf.getFloat();
+
+	int popDocN = buf.getInt();
+	Topic tp = new Topic(Math.max(popDocN, 1));
+	tp.support = support;
+	tp.time = time;
+	tp.setWordVector(ids, weights, n);
+	// the vector is saved in the order of aggregation
+	tp.reOrder();
+	for (int i = 0; i < popDocN; i++)
+	    tp.popularDocs.add(new Document(buf.getLong(), buf.getInt(), buf
+		    .getLong()));
+	return tp;
+    }
+
+    /*
+     * @return ids of the words of the topic vector, heaviest first
+     */
+    public int[] getTopWordIds() {
+	int[] ids = Arrays.copyOf(wordIds, wordN);
+	float[] w = Arrays.copyOf(weights, wordN);
+	// insertion sort, a topic vector has popularWordN words at most
+	for (int i = 1; i < wordN; i++) {
+	    int id = ids[i];
+	    float weight = w[i];
+	    int j = i - 1;
+	    for (; j >= 0 && w[j] < weight; j--) {
+		ids[j + 1] = ids[j];
+		w[j + 1] = w[j];
+	    }
+	    ids[j + 1] = id;
+	    w[j + 1] = weight;
+	}
+	return ids;
+    }
+
     /*
      * summarize the word distribution for the topic
      * normalize it
      */
     public void aggregateDocs() {
-	vec = aggregate(docs);
+	Vector<Word> vec = aggregate(docs);
+	initWordVector(vec.size());
+	for (Word w : vec)
+	    append(w.getId(), w.getWeight());
 	normalize();
     }
     
@@ -136,13 +220,15 @@ public class Topic extends Document {
 	// set topic's time as any doc's time, just for its time window determination
 	time = docs.get(0).getTime();
 	for (Document doc : docs) {
-	    for (Word word : doc.getWordVector()) {
-		Word w = wordFreq.get(word.getId());
+	    int[] ids = doc.getWordIds();
+	    float[] weights = doc.getWeights();
+	    for (int i = 0; i < doc.getWordNum(); i++) {
+		Word w = wordFreq.get(ids[i]);
 		if (w == null)
-		    w = new Word(word.getId(), word.getWeight());
+		    w = new Word(ids[i], weights[i]);
 		else
-		    w.setWeight(w.getWeight() + word.getWeight());
-		wordFreq.put(word.getId(), w);
+		    w.setWeight(w.getWeight() + weights[i]);
+		wordFreq.put(ids[i], w);
 	    }
 	}
 
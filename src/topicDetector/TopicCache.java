@@ -0,0 +1,165 @@
+package topicDetector;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+
+import util.Configure;
+
+/*
+ * process wide LRU cache of the binary topics of slots(path.topic) read into
+ * the heap, so that queries decode topics without opening their files. the
+ * cache is weighed by the bytes of the cached files, a file is read again
+ * once it is rewritten. topics are decoded for each query, thus queries
+ * never share Topic instances.
+ *
+ * slots can be prefetched in the background, e.g., the days next to a
+ * queried day.
+ */
+public class TopicCache {
+    static final Logger logger = Logger.getLogger(TopicCache.class);
+
+    // estimated heap bytes of an entry besides the file
+    static final int ENTRY_OVERHEAD = 128;
+
+    final long maxBytes;
+
+    // path->topics, in access order
+    LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(
+	    16, 0.75f, true);
+    long bytes;
+
+    // paths being prefetched
+    HashSet<String> prefetching = new HashSet<String>();
+    ExecutorService prefetcher;
+
+    long hits;
+    long misses;
+    long prefetches;
+    long evictions;
+
+    class Entry {
+	TopicStore store;
+	long version;
+	long bytes;
+    }
+
+    public TopicCache(long maxBytes) {
+	this.maxBytes = maxBytes;
+	prefetcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+	    public Thread newThread(Runnable r) {
+		Thread t = new Thread(r, "topic-prefetch");
+		t.setDaemon(true);
+		return t;
+	    }
+	});
+    }
+
+    public TopicCache(Configure conf) {
+	this((long) conf.getTopicCacheMB() << 20);
+    }
+
+    static long version(File f) {
+	return f.lastModified() ^ f.length() * 31;
+    }
+
+    /*
+     * @return topics of path, null if path.topic is in the previous text
+     * format
+     */
+    public TopicStore get(String path) throws IOException {
+	long version = version(new File(path + ".topic"));
+	synchronized (this) {
+	    Entry entry = entries.get(path);
+	    if (entry != null && entry.version == version) {
+		hits++;
+		return entry.store;
+	    }
+	    misses++;
+	}
+	return load(path, version);
+    }
+
+    /*
+     * read path.topic and cache it
+     */
+    TopicStore load(String path, long version) throws IOException {
+	TopicStore store = TopicStore.read(path);
+	if (store == null)
+	    return null;
+
+	synchronized (this) {
+	    Entry old = entries.remove(path);
+	    if (old != null)
+		bytes -= old.bytes;
+	    Entry entry = new Entry();
+	    entry.store = store;
+	    entry.version = version;
+	    entry.bytes = store.getBytes() + ENTRY_OVERHEAD;
+	    entries.put(path, entry);
+	    bytes += entry.bytes;
+
+	    // evict topics least recently used first, keeping the new ones
+	    Iterator<Entry> it = entries.values().iterator();
+	    while (bytes > maxBytes && entries.size() > 1) {
+		bytes -= it.next().bytes;
+		it.remove();
+		evictions++;
+	    }
+	}
+	return store;
+    }
+
+    /*
+     * read the topics of path in the background if they are not cached
+     */
+    public void prefetch(final String path) {
+	final File f = new File(path + ".topic");
+	if (!f.exists())
+	    return;
+	synchronized (this) {
+	    Entry entry = entries.get(path);
+	    if (entry != null && entry.version == version(f)
+		    || !prefetching.add(path))
+		return;
+	}
+
+	prefetcher.execute(new Runnable() {
+	    public void run() {
+		try {
+		    load(path, version(f));
+		    synchronized (TopicCache.this) {
+			prefetches++;
+		    }
+		} catch (IOException e) {
+		    logger.warn("failed to prefetch " + path, e);
+		} finally {
+		    synchronized (TopicCache.this) {
+			prefetching.remove(path);
+		    }
+		}
+	    }
+	});
+    }
+
+    public synchronized long getHits() {
+	return hits;
+    }
+
+    public synchronized long getMisses() {
+	return misses;
+    }
+
+    public synchronized String toString() {
+	return "topic cache: " + entries.size() + " slots, " + (bytes >> 10)
+		+ " KB, " + hits + " hits, " + misses + " misses, "
+		+ prefetches + " prefetches, " + evictions + " evictions";
+    }
+}
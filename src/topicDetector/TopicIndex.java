@@ -0,0 +1,502 @@
+package topicDetector;
+
+import gnu.trove.TFloatArrayList;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TIntObjectHashMap;
+import gnu.trove.TLongFloatHashMap;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Vector;
+
+import org.apache.log4j.Logger;
+
+import util.Configure;
+import util.Dictionary;
+import util.Parser;
+
+/*
+ * persistent index of the topics of all slots by their words(topics.index
+ * of the docs directory), to find when topics of some keywords were popular
+ * without merging slots.
+ *
+ * the words of a topic are those of its centroid, see
+ * {@link Topic#aggregateDocs}. the postings of a word are the slot, rank and
+ * weight of the topics having it, in the order of slot and rank. the rank of
+ * a topic is its position in its slot, see {@link TopicStore#get}. each slot
+ * also has a bloom filter of its words, a query skips the slots without all
+ * of its words before looking at postings.
+ *
+ * file: magic, version, slot number n, word number m, longs of a bloom
+ * filter b. n slots: version of slot.topic and topic number. n bloom
+ * filters. supports of the topics of each slot. m word ids in increasing
+ * order, m+1 offsets of their postings from the end of the offsets, then the
+ * postings. a posting is the slot delta from the previous posting and the
+ * rank(delta from the previous rank in the same slot) as varints, and the
+ * weight.
+ *
+ * the index is updated after clustering, the postings of slots whose topics
+ * did not change are kept instead of reading their topics again.
+ */
+public class TopicIndex {
+    static final Logger logger = Logger.getLogger(TopicIndex.class);
+
+    static final int MAGIC = 0x54425449;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 20;
+
+    // bloom filter bits per word of a slot, and bits set per word
+    static final int BLOOM_BITS = 8;
+    static final int BLOOM_HASHES = 4;
+
+    long[] versions;
+    int[] topicNs;
+    int bloomN;
+    long[] blooms;
+    int[][] supports;
+
+    int[] wordIds;
+    long[] offsets;
+    ByteBuffer postings;
+
+    /*
+     * a topic found by {@link #search}
+     */
+    public static class Hit {
+	int slot;
+	int rank;
+	int support;
+	float score;
+
+	public int getSlot() {
+	    return slot;
+	}
+
+	public int getRank() {
+	    return rank;
+	}
+
+	public int getSupport() {
+	    return support;
+	}
+
+	public float getScore() {
+	    return score;
+	}
+    }
+
+    /*
+     * postings of a word, being built
+     */
+    static class Postings {
+	TIntArrayList slots = new TIntArrayList();
+	TIntArrayList ranks = new TIntArrayList();
+	TFloatArrayList weights = new TFloatArrayList();
+
+	void add(int slot, int rank, float weight) {
+	    slots.add(slot);
+	    ranks.add(rank);
+	    weights.add(weight);
+	}
+    }
+
+    /*
+     * postings of the words of a slot, being built. the postings of a word
+     * are in the order of rank
+     */
+    static class SlotPostings {
+	TIntArrayList words = new TIntArrayList();
+	TIntArrayList ranks = new TIntArrayList();
+	TFloatArrayList weights = new TFloatArrayList();
+
+	void add(int word, int rank, float weight) {
+	    words.add(word);
+	    ranks.add(rank);
+	    weights.add(weight);
+	}
+    }
+
+    public static File file(Configure conf) {
+	return new File(conf.getDocsDir(), "topics.index");
+    }
+
+    /*
+     * map an index file
+     */
+    public static TopicIndex open(File f) throws IOException {
+	RandomAccessFile raf = new RandomAccessFile(f, "r");
+	try {
+	    ByteBuffer buf = raf.getChannel().map(
+		    FileChannel.MapMode.READ_ONLY, 0, raf.length());
+	    if (raf.length() < HEADER_SIZE || buf.getInt() != MAGIC)
+		throw new IOException("not a topic index " + f);
+	    if (buf.getInt() != VERSION)
+		throw new IOException("unknown topic index version " + f);
+	    int slotN = buf.getInt();
+	    int wordN = buf.getInt();
+
+	    TopicIndex index = new TopicIndex();
+	    index.bloomN = buf.getInt();
+	    index.versions = new long[slotN];
+	    index.topicNs = new int[slotN];
+	    for (int i = 0; i < slotN; i++) {
+		index.versions[i] = buf.getLong();
+		index.topicNs[i] = buf.getInt();
+	    }
+	    index.blooms = new long[slotN * index.bloomN];
+	    buf.asLongBuffer().get(index.blooms);
+	    buf.position(buf.position() + 8 * index.blooms.length);
+	    index.supports = new int[slotN][];
+	    for (int i = 0; i < slotN; i++) {
+		index.supports[i] = new int[index.topicNs[i]];
+		buf.asIntBuffer().get(index.supports[i]);
+		buf.position(buf.position() + 4 * index.topicNs[i]);
+	    }
+	    index.wordIds = new int[wordN];
+	    buf.asIntBuffer().get(index.wordIds);
+	    buf.position(buf.position() + 4 * wordN);
+	    index.offsets = new long[wordN + 1];
+	    buf.asLongBuffer().get(index.offsets);
+	    buf.position(buf.position() + 8 * (wordN + 1));
+	    index.postings = buf.slice();
+	    return index;
+	} finally {
+	    raf.close();
+	}
+    }
+
+    /*
+     * index the topics of the slots of the docs directory again. the
+     * postings of slots whose path.topic is unchanged are copied from the
+     * previous index
+     *
+     * @return the updated index
+     */
+    public static TopicIndex update(Configure conf, OPTICSCluster optics)
+	    throws IOException {
+	File docsDir = conf.getDocsDir();
+	File f = file(conf);
+	TopicIndex old = null;
+	if (f.exists()) {
+	    try {
+		old = open(f);
+	    } catch (IOException e) {
+		logger.warn("the previous topic index is ignored", e);
+	    }
+	}
+
+	int slotN = TopicStore.maxSlot(docsDir) + 1;
+
+	TopicIndex index = new TopicIndex();
+	index.versions = new long[slotN];
+	index.topicNs = new int[slotN];
+	index.supports = new int[slotN][];
+	SlotPostings[] slots = new SlotPostings[slotN];
+	BitSet kept = new BitSet(slotN);
+	int read = 0;
+	for (int slot = 0; slot < slotN; slot++) {
+	    slots[slot] = new SlotPostings();
+	    File tf = new File(docsDir, slot + ".topic");
+	    if (!tf.exists()) {
+		index.supports[slot] = new int[0];
+		continue;
+	    }
+	    index.versions[slot] = TopicCache.version(tf);
+	    if (old != null && slot < old.versions.length
+		    && old.versions[slot] == index.versions[slot]) {
+		kept.set(slot);
+		index.topicNs[slot] = old.topicNs[slot];
+		index.supports[slot] = old.supports[slot];
+		continue;
+	    }
+
+	    Vector<Topic> topics = optics.loadTopics(new File(docsDir, ""
+		    + slot).getPath(), new Vector<Topic>());
+	    index.topicNs[slot] = topics.size();
+	    index.supports[slot] = new int[topics.size()];
+	    for (int rank = 0; rank < topics.size(); rank++) {
+		Topic tp = topics.get(rank);
+		index.supports[slot][rank] = tp.getSupport();
+		int[] ids = tp.getWordIds();
+		float[] weights = tp.getWeights();
+		for (int i = 0; i < tp.getWordNum(); i++)
+		    slots[slot].add(ids[i], rank, weights[i]);
+	    }
+	    read++;
+	}
+	if (old != null)
+	    old.copyPostings(kept, slots);
+
+	index.write(f, slots);
+	logger.info("topic index: " + read + " slots indexed, "
+		+ kept.cardinality() + " kept");
+	return open(f);
+    }
+
+    /*
+     * append the postings of kept slots to their slot postings
+     */
+    void copyPostings(BitSet kept, SlotPostings[] slots) {
+	ByteBuffer buf = postings.duplicate();
+	for (int w = 0; w < wordIds.length; w++) {
+	    buf.position((int) offsets[w]);
+	    int slot = 0, rank = 0;
+	    while (buf.position() < offsets[w + 1]) {
+		int delta = readVarint(buf);
+		slot += delta;
+		rank = delta == 0 ? rank + readVarint(buf) : readVarint(buf);
+		float weight = buf.getFloat();
+		if (kept.get(slot))
+		    slots[slot].add(wordIds[w], rank, weight);
+	    }
+	}
+    }
+
+    /*
+     * save the index of the slot postings into f, it replaces f at once
+     */
+    void write(File f, SlotPostings[] slots) throws IOException {
+	int slotN = slots.length;
+
+	// word->its postings, slots are added in order thus the postings are
+	// sorted by slot and rank
+	TIntObjectHashMap<Postings> words = new TIntObjectHashMap<Postings>();
+	int maxWords = 1;
+	for (int slot = 0; slot < slotN; slot++) {
+	    SlotPostings sp = slots[slot];
+	    TIntHashSet slotWords = new TIntHashSet();
+	    for (int i = 0; i < sp.words.size(); i++) {
+		int word = sp.words.get(i);
+		slotWords.add(word);
+		Postings list = words.get(word);
+		if (list == null) {
+		    list = new Postings();
+		    words.put(word, list);
+		}
+		list.add(slot, sp.ranks.get(i), sp.weights.get(i));
+	    }
+	    maxWords = Math.max(maxWords, slotWords.size());
+	}
+
+	int bloomBits = Math.max(64, Integer.highestOneBit(maxWords
+		* BLOOM_BITS - 1) * 2);
+	bloomN = bloomBits / 64;
+	blooms = new long[slotN * bloomN];
+	wordIds = words.keys();
+	Arrays.sort(wordIds);
+	offsets = new long[wordIds.length + 1];
+
+	// postings are small enough to be encoded in memory
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	DataOutputStream out = new DataOutputStream(bytes);
+	for (int w = 0; w < wordIds.length; w++) {
+	    offsets[w] = out.size();
+	    Postings list = words.get(wordIds[w]);
+	    int prevSlot = 0, prevRank = 0;
+	    for (int i = 0; i < list.slots.size(); i++) {
+		int slot = list.slots.get(i), rank = list.ranks.get(i);
+		setBloom(slot, wordIds[w]);
+		writeVarint(out, slot - prevSlot);
+		writeVarint(out, slot == prevSlot ? rank - prevRank : rank);
+		out.writeFloat(list.weights.get(i));
+		prevSlot = slot;
+		prevRank = rank;
+	    }
+	}
+	offsets[wordIds.length] = out.size();
+
+	File tmp = new File(f.getPath() + ".tmp");
+	DataOutputStream file = new DataOutputStream(new BufferedOutputStream(
+		new FileOutputStream(tmp), 1 << 16));
+	file.writeInt(MAGIC);
+	file.writeInt(VERSION);
+	file.writeInt(slotN);
+	file.writeInt(wordIds.length);
+	file.writeInt(bloomN);
+	for (int slot = 0; slot < slotN; slot++) {
+	    file.writeLong(versions[slot]);
+	    file.writeInt(topicNs[slot]);
+	}
+	for (long bits : blooms)
+	    file.writeLong(bits);
+	for (int slot = 0; slot < slotN; slot++)
+	    for (int support : supports[slot])
+		file.writeInt(support);
+	for (int id : wordIds)
+	    file.writeInt(id);
+	for (long offset : offsets)
+	    file.writeLong(offset);
+	bytes.writeTo(file);
+	file.close();
+	if (!tmp.renameTo(f))
+	    throw new IOException("failed to replace " + f);
+    }
+
+    void setBloom(int slot, int word) {
+	int mask = bloomN * 64 - 1;
+	int h1 = hash(word), h2 = (h1 >>> 16) | 1;
+	for (int i = 0; i < BLOOM_HASHES; i++) {
+	    int bit = (h1 + i * h2) & mask;
+	    blooms[slot * bloomN + (bit >>> 6)] |= 1L << bit;
+	}
+    }
+
+    /*
+     * @return false if slot has no topic of word, true if it may have
+     */
+    boolean mayHave(int slot, int word) {
+	int mask = bloomN * 64 - 1;
+	int h1 = hash(word), h2 = (h1 >>> 16) | 1;
+	for (int i = 0; i < BLOOM_HASHES; i++) {
+	    int bit = (h1 + i * h2) & mask;
+	    if ((blooms[slot * bloomN + (bit >>> 6)] & 1L << bit) == 0)
+		return false;
+	}
+	return true;
+    }
+
+    static int hash(int word) {
+	int h = word * 0x9e3779b9;
+	return h ^ (h >>> 15);
+    }
+
+    static void writeVarint(DataOutputStream out, int v) throws IOException {
+	while ((v & ~0x7f) != 0) {
+	    out.writeByte((v & 0x7f) | 0x80);
+	    v >>>= 7;
+	}
+	out.writeByte(v);
+    }
+
+    static int readVarint(ByteBuffer buf) {
+	int v = 0;
+	for (int shift = 0;; shift += 7) {
+	    byte b = buf.get();
+	    v |= (b & 0x7f) << shift;
+	    if (b >= 0)
+		return v;
+	}
+    }
+
+    /*
+     * @return ids of the keywords of a query, split and stemmed by parser like
+     * the text of documents. -1 for keywords not in the dictionary
+     */
+    public static int[] lookup(Dictionary dict, Parser parser, String query) {
+	Vector<String> keywords = parser.parseWords(query);
+	int[] ret = new int[keywords.size()];
+	for (int i = 0; i < ret.length; i++) {
+	    Dictionary.Word w = dict.retrieve(keywords.get(i));
+	    ret[i] = w == null ? -1 : w.getId();
+	}
+	return ret;
+    }
+
+    public int getSlotN() {
+	return versions.length;
+    }
+
+    /*
+     * find the topics having all words
+     *
+     * @param slots slots to search, null for all
+     *
+     * @return top k topics, by their support times the summed weights of the
+     * words
+     */
+    public Vector<Hit> search(int[] words, BitSet slots, int k) {
+	Vector<Hit> hits = new Vector<Hit>();
+	int[] positions = new int[words.length];
+	for (int i = 0; i < words.length; i++) {
+	    positions[i] = words[i] < 0 ? -1 : Arrays.binarySearch(wordIds,
+		    words[i]);
+	    if (positions[i] < 0)
+		return hits;
+	}
+	if (words.length == 0)
+	    return hits;
+
+	// slots whose bloom filters have all words
+	BitSet candidates = new BitSet(getSlotN());
+	for (int slot = 0; slot < getSlotN(); slot++) {
+	    if (slots != null && !slots.get(slot))
+		continue;
+	    boolean all = true;
+	    for (int i = 0; i < words.length && all; i++)
+		all = mayHave(slot, words[i]);
+	    if (all)
+		candidates.set(slot);
+	}
+	if (candidates.isEmpty())
+	    return hits;
+
+	// intersect the postings, the shortest first
+	Integer[] order = new Integer[words.length];
+	for (int i = 0; i < order.length; i++)
+	    order[i] = i;
+	final int[] pos = positions;
+	Arrays.sort(order, new Comparator<Integer>() {
+	    public int compare(Integer a, Integer b) {
+		long la = offsets[pos[a] + 1] - offsets[pos[a]];
+		long lb = offsets[pos[b] + 1] - offsets[pos[b]];
+		return la < lb ? -1 : (la == lb ? 0 : 1);
+	    }
+	});
+
+	// (slot, rank)->summed weight of the topics having the words so far
+	TLongFloatHashMap scores = null;
+	ByteBuffer buf = postings.duplicate();
+	for (int i : order) {
+	    TLongFloatHashMap next = new TLongFloatHashMap();
+	    buf.position((int) offsets[positions[i]]);
+	    int slot = 0, rank = 0;
+	    while (buf.position() < offsets[positions[i] + 1]) {
+		int delta = readVarint(buf);
+		slot += delta;
+		rank = delta == 0 ? rank + readVarint(buf) : readVarint(buf);
+		float weight = buf.getFloat();
+		if (!candidates.get(slot))
+		    continue;
+		long key = (long) slot << 32 | rank;
+		if (scores == null)
+		    next.put(key, weight);
+		else if (scores.containsKey(key))
+		    next.put(key, scores.get(key) + weight);
+	    }
+	    scores = next;
+	    if (scores.isEmpty())
+		return hits;
+	}
+
+	for (long key : scores.keys()) {
+	    Hit hit = new Hit();
+	    hit.slot = (int) (key >>> 32);
+	    hit.rank = (int) key;
+	    hit.support = supports[hit.slot][hit.rank];
+	    hit.score = hit.support * scores.get(key);
+	    hits.add(hit);
+	}
+	Collections.sort(hits, new Comparator<Hit>() {
+	    public int compare(Hit a, Hit b) {
+		if (a.score != b.score)
+		    return a.score > b.score ? -1 : 1;
+		return a.slot != b.slot ? a.slot - b.slot : a.rank - b.rank;
+	    }
+	});
+	if (hits.size() > k)
+	    hits.setSize(k);
+	return hits;
+    }
+}
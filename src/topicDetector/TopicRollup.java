@@ -0,0 +1,272 @@
+package topicDetector;
+
+import gnu.trove.TLongObjectHashMap;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.channels.FileChannel;
+import java.util.Vector;
+
+import org.apache.log4j.Logger;
+
+import util.Configure;
+
+/*
+ * segment tree of pre-merged topics over consecutive slots. node k of level
+ * l covers slots [k*2^l, (k+1)*2^l), its topics are merged from the topics
+ * of its two children by mergeTopics and saved in rollup/l-k.topic of the
+ * docs directory. level 0 nodes are the .topic files of the slots.
+ *
+ * a range of slots is then answered by merging O(log N) nodes instead of N
+ * slots. the build records the number of slots and a hash of their .topic
+ * versions under each node in rollup/manifest. a node whose slots have
+ * changed since, including slots added or deleted, is outdated. it is
+ * rebuilt by the next build and not used by queries before.
+ */
+public class TopicRollup {
+    static final Logger logger = Logger.getLogger(TopicRollup.class);
+
+    String docsDir;
+    File rollupDir;
+
+    // node key->{slot number, slot hash} of the last build, see {@link #key}
+    TLongObjectHashMap<long[]> manifest;
+    long manifestModified;
+
+    public TopicRollup(Configure conf) {
+	docsDir = conf.getDocsDir().getPath();
+	rollupDir = new File(conf.getDocsDir(), "rollup");
+    }
+
+    /*
+     * @return path(without suffix) of node k at level
+     */
+    String path(int level, int k) {
+	if (level == 0)
+	    return docsDir + "/" + k;
+	return rollupDir.getPath() + "/" + level + "-" + k;
+    }
+
+    File topicFile(int level, int k) {
+	return new File(path(level, k) + ".topic");
+    }
+
+    static long key(int level, int k) {
+	return (long) level << 32 | k;
+    }
+
+    File manifestFile() {
+	return new File(rollupDir, "manifest");
+    }
+
+    /*
+     * prefix sums of the slots [from, to], sums[0][i] is the number of slots
+     * with topics before from+i, sums[1][i] the sum of their versions
+     */
+    long[][] slotSums(int from, int to) {
+	long[][] sums = new long[2][to - from + 2];
+	for (int slot = from; slot <= to; slot++) {
+	    File f = topicFile(0, slot);
+	    int i = slot - from;
+	    sums[0][i + 1] = sums[0][i];
+	    sums[1][i + 1] = sums[1][i];
+	    if (f.exists()) {
+		sums[0][i + 1]++;
+		sums[1][i + 1] += TopicCache.version(f);
+	    }
+	}
+	return sums;
+    }
+
+    /*
+     * merge the outdated or missing nodes, bottom up. after a slot changes
+     * only the nodes on its path to the root are merged again, a node
+     * without slots is deleted
+     *
+     * @return number of merged nodes
+     */
+    public int build(OPTICSCluster optics) throws IOException {
+	int maxSlot = Math.max(0, TopicStore.maxSlot(new File(docsDir)));
+
+	rollupDir.mkdirs();
+	long[][] sums = slotSums(0, maxSlot);
+	TLongObjectHashMap<long[]> built = readManifest(manifestFile());
+	TLongObjectHashMap<long[]> current = new TLongObjectHashMap<long[]>();
+	int merged = 0;
+	for (int level = 1; maxSlot >> (level - 1) > 0; level++) {
+	    for (int k = 0; k <= maxSlot >> level; k++) {
+		File node = topicFile(level, k);
+		long[] slots = range(sums, level, k, 0, maxSlot);
+		if (slots[0] == 0) {
+		    node.delete();
+		    continue;
+		}
+		current.put(key(level, k), slots);
+		long[] last = built.get(key(level, k));
+		if (node.exists() && last != null && last[0] == slots[0]
+			&& last[1] == slots[1])
+		    continue;
+
+		long[] left = range(sums, level - 1, 2 * k, 0, maxSlot);
+		long[] right = range(sums, level - 1, 2 * k + 1, 0, maxSlot);
+		if (left[0] == 0 || right[0] == 0) {
+		    // a single child is kept as it is
+		    copy(topicFile(level - 1, left[0] == 0 ? 2 * k + 1 : 2 * k),
+			    node);
+		} else {
+		    Vector<String> paths = new Vector<String>();
+		    paths.add(path(level - 1, 2 * k));
+		    paths.add(path(level - 1, 2 * k + 1));
+		    Vector<Topic> topics = optics.mergeTopics(paths);
+		    optics.saveTopics(topics, path(level, k));
+		}
+		merged++;
+	    }
+	}
+	writeManifest(current, manifestFile());
+	logger.info(merged + " rollup nodes have been merged.");
+	return merged;
+    }
+
+    /*
+     * @return {slot number, slot hash} of node k at level, by the prefix sums
+     * of slots [from, to] which must cover the node as far as slots may exist
+     */
+    static long[] range(long[][] sums, int level, int k, int from, int to) {
+	int lo = Math.max(k << level, from) - from;
+	int hi = Math.min((k + 1 << level) - 1, to) - from + 1;
+	if (lo >= hi)
+	    return new long[] { 0, 0 };
+	return new long[] { sums[0][hi] - sums[0][lo],
+		sums[1][hi] - sums[1][lo] };
+    }
+
+    /*
+     * copy through a temporary file, queries never read a partial node
+     */
+    static void copy(File from, File to) throws IOException {
+	File tmp = new File(to.getPath() + ".tmp");
+	FileChannel in = new FileInputStream(from).getChannel();
+	FileChannel out = new FileOutputStream(tmp).getChannel();
+	try {
+	    in.transferTo(0, in.size(), out);
+	} finally {
+	    in.close();
+	    out.close();
+	}
+	if (!tmp.renameTo(to))
+	    throw new IOException("failed to replace " + to);
+    }
+
+    static TLongObjectHashMap<long[]> readManifest(File f) throws IOException {
+	TLongObjectHashMap<long[]> nodes = new TLongObjectHashMap<long[]>();
+	if (!f.exists())
+	    return nodes;
+	BufferedReader in = new BufferedReader(new FileReader(f));
+	try {
+	    String line;
+	    while ((line = in.readLine()) != null) {
+		String[] fields = line.split(" ");
+		if (fields.length != 4)
+		    continue;
+		nodes.put(key(Integer.parseInt(fields[0]), Integer
+			.parseInt(fields[1])), new long[] {
+			Long.parseLong(fields[2]), Long.parseLong(fields[3]) });
+	    }
+	} finally {
+	    in.close();
+	}
+	return nodes;
+    }
+
+    /*
+     * write a line "level k slotNumber slotHash" per node
+     */
+    static void writeManifest(TLongObjectHashMap<long[]> nodes, File f)
+	    throws IOException {
+	File tmp = new File(f.getPath() + ".tmp");
+	PrintWriter out = new PrintWriter(tmp);
+	for (long key : nodes.keys()) {
+	    long[] slots = nodes.get(key);
+	    out.println((key >>> 32) + " " + (int) key + " " + slots[0] + " "
+		    + slots[1]);
+	}
+	out.close();
+	if (out.checkError())
+	    throw new IOException("failed to write " + tmp);
+	if (!tmp.renameTo(f))
+	    throw new IOException("failed to replace " + f);
+    }
+
+    /*
+     * @return the manifest of the last build, read again once it is rewritten
+     */
+    synchronized TLongObjectHashMap<long[]> getManifest() {
+	File f = manifestFile();
+	if (manifest == null || f.lastModified() != manifestModified) {
+	    try {
+		manifestModified = f.lastModified();
+		manifest = readManifest(f);
+	    } catch (IOException e) {
+		logger.warn("failed to read " + f, e);
+		manifest = new TLongObjectHashMap<long[]>();
+	    }
+	}
+	return manifest;
+    }
+
+    /*
+     * @return whether node k at level was built from the slots it covers now
+     */
+    boolean upToDate(TLongObjectHashMap<long[]> built, int level, int k,
+	    long[] slots) {
+	if (slots[0] == 0)
+	    return true;
+	long[] last = built.get(key(level, k));
+	return last != null && last[0] == slots[0] && last[1] == slots[1]
+		&& topicFile(level, k).exists();
+    }
+
+    /*
+     * cover slots [from, to] by the fewest up to date nodes. each slot is
+     * checked once, a node by its entry in the manifest
+     *
+     * @return paths(without suffix) of the nodes with topics
+     */
+    public Vector<String> cover(int from, int to) {
+	Vector<String> paths = new Vector<String>();
+	if (from > to)
+	    return paths;
+	TLongObjectHashMap<long[]> built = getManifest();
+	long[][] sums = slotSums(from, to);
+	int slot = from;
+	while (slot <= to) {
+	    int level = 0;
+	    while (slot % (2 << level) == 0
+		    && slot + (2 << level) - 1 <= to
+		    && upToDate(built, level + 1, slot >> (level + 1), range(
+			    sums, level + 1, slot >> (level + 1), from, to)))
+		level++;
+	    if (range(sums, level, slot >> level, from, to)[0] > 0)
+		paths.add(path(level, slot >> level));
+	    slot += 1 << level;
+	}
+	return paths;
+    }
+
+    /*
+     * merge the topics of slots [from, to]
+     */
+    public Vector<Topic> mergeRange(OPTICSCluster optics, int from, int to)
+	    throws IOException {
+	Vector<String> paths = cover(from, to);
+	if (paths.isEmpty())
+	    return new Vector<Topic>();
+	return optics.mergeTopics(paths);
+    }
+}
@@ -0,0 +1,52 @@
+package topicDetector;
+
+import java.io.File;
+import java.util.Vector;
+
+import util.Configure;
+
+/*
+ * build the topic rollups of the docs directory, then merge ranges of 1,2,4..
+ * slots from the slots and from the rollup nodes, and report the latency of
+ * both against the range length.
+ *
+ * Usage: TopicRollupBenchmark configFile [from]
+ */
+public class TopicRollupBenchmark {
+
+    public static void main(String[] args) throws Exception {
+	Configure conf = new Configure(args[0]);
+	int from = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+	OPTICSCluster optics = new OPTICSCluster(conf);
+	TopicRollup rollup = new TopicRollup(conf);
+
+	long start = System.currentTimeMillis();
+	int built = rollup.build(optics);
+	System.out.println("rollup: " + built + " nodes merged in "
+		+ (System.currentTimeMillis() - start) + " ms");
+
+	int maxSlot = Math.max(0, TopicStore.maxSlot(conf.getDocsDir()));
+
+	for (int len = 1; from + len - 1 <= maxSlot; len *= 2) {
+	    int to = from + len - 1;
+	    Vector<String> slots = new Vector<String>();
+	    for (int slot = from; slot <= to; slot++)
+		if (new File(conf.getDocsDir(), slot + ".topic").exists())
+		    slots.add(conf.getDocsDir().getPath() + "/" + slot);
+
+	    start = System.currentTimeMillis();
+	    int slotTopics = optics.mergeTopics(slots).size();
+	    long slotTime = System.currentTimeMillis() - start;
+
+	    start = System.currentTimeMillis();
+	    Vector<String> nodes = rollup.cover(from, to);
+	    int nodeTopics = rollup.mergeRange(optics, from, to).size();
+	    long nodeTime = System.currentTimeMillis() - start;
+
+	    System.out.println(len + " slots: " + slots.size() + " files "
+		    + slotTime + " ms " + slotTopics + " topics, rollup "
+		    + nodes.size() + " files " + nodeTime + " ms "
+		    + nodeTopics + " topics");
+	}
+    }
+}
@@ -0,0 +1,161 @@
+package topicDetector;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.Vector;
+
+/*
+ * binary topics of a slot(path.topic), sorted by support in descending
+ * order, so that the top k topics are the first k ones.
+ *
+ * header: magic, version, topic number n, n+1 offsets of the topics from the
+ * end of the header. topic: see {@link Topic#write}.
+ *
+ * the file is memory mapped or read into the heap, a topic is decoded when
+ * it is got. a store can be shared by threads.
+ */
+public class TopicStore {
+
+    static final int MAGIC = 0x54425450;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 12;
+
+    ByteBuffer buf;
+    LongBuffer offsets;
+    int topicN;
+    long base;
+
+    /*
+     * save topics into path.topic, sorted by support. the topics are written
+     * to a temporary file which then replaces path.topic, so that readers
+     * never map a partially written file
+     */
+    public static void write(String path, Vector<Topic> topics)
+	    throws IOException {
+	Vector<Topic> sorted = new Vector<Topic>(topics);
+	Collections.sort(sorted);
+
+	File f = new File(path + ".topic");
+	File tmp = new File(path + ".topic.tmp");
+	DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+		new FileOutputStream(tmp), 1 << 16));
+	out.writeInt(MAGIC);
+	out.writeInt(VERSION);
+	out.writeInt(sorted.size());
+	long offset = 0;
+	out.writeLong(offset);
+	for (Topic tp : sorted) {
+	    offset += tp.encodedSize();
+	    out.writeLong(offset);
+	}
+	for (Topic tp : sorted)
+	    tp.write(out);
+	out.flush();
+	out.close();
+	if (!tmp.renameTo(f))
+	    throw new IOException("failed to replace " + f);
+    }
+
+    /*
+     * map path.topic
+     *
+     * @return null if it is in the previous text format
+     */
+    public static TopicStore open(String path) throws IOException {
+	RandomAccessFile raf = new RandomAccessFile(path + ".topic", "r");
+	try {
+	    if (!isBinary(raf, path))
+		return null;
+	    return new TopicStore(raf.getChannel().map(
+		    FileChannel.MapMode.READ_ONLY, 0, raf.length()));
+	} finally {
+	    raf.close();
+	}
+    }
+
+    /*
+     * read path.topic into the heap
+     *
+     * @return null if it is in the previous text format
+     */
+    public static TopicStore read(String path) throws IOException {
+	RandomAccessFile raf = new RandomAccessFile(path + ".topic", "r");
+	try {
+	    if (!isBinary(raf, path))
+		return null;
+	    byte[] bytes = new byte[(int) raf.length()];
+	    raf.seek(0);
+	    raf.readFully(bytes);
+	    return new TopicStore(ByteBuffer.wrap(bytes));
+	} finally {
+	    raf.close();
+	}
+    }
+
+    /*
+     * @return the largest slot with a .topic file in dir, -1 if there is
+     * none. files not named by a slot number, e.g., a copy, are ignored
+     */
+    public static int maxSlot(File dir) {
+	int maxSlot = -1;
+	String[] names = dir.list();
+	if (names == null)
+	    return maxSlot;
+	for (String name : names) {
+	    if (!name.endsWith(".topic"))
+		continue;
+	    try {
+		maxSlot = Math.max(maxSlot, Integer.parseInt(name.substring(0,
+			name.length() - 6)));
+	    } catch (NumberFormatException e) {
+		// not a slot file
+	    }
+	}
+	return maxSlot;
+    }
+
+    static boolean isBinary(RandomAccessFile raf, String path)
+	    throws IOException {
+	if (raf.length() < HEADER_SIZE || raf.readInt() != MAGIC)
+	    return false;
+	if (raf.readInt() != VERSION)
+	    throw new IOException("unknown topic version " + path);
+	return true;
+    }
+
+    TopicStore(ByteBuffer buf) {
+	this.buf = buf;
+	topicN = buf.getInt(8);
+	buf.position(HEADER_SIZE);
+	offsets = buf.slice().asLongBuffer();
+	base = HEADER_SIZE + 8L * (topicN + 1);
+    }
+
+    public int size() {
+	return topicN;
+    }
+
+    /*
+     * @return bytes of the file
+     */
+    public int getBytes() {
+	return buf.capacity();
+    }
+
+    /*
+     * decode the i-th most popular topic
+     */
+    public Topic get(int i) {
+	ByteBuffer topic = buf.duplicate();
+	topic.position((int) (base + offsets.get(i)));
+	return Topic.read(topic);
+    }
+}
@@ -0,0 +1,119 @@
+package twitter;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import util.Configure;
+
+/*
+ * tweets/sec of one thread for the previous regex based parseText and the
+ * single pass tokenizer, the word counts of both must be the same. the
+ * dictionary word pipeline(countTerms) is measured if the dictionary of the
+ * configuration exists.
+ * 
+ * Usage: TokenizerBenchmark [confFile] [tweetNum]
+ */
+public class TokenizerBenchmark {
+
+    static final String[] WORDS = { "Olympics", "london", "swimming",
+	    "Phelps", "wins", "gold", "medals", "the", "of", "a", "is",
+	    "running", "Batman", "rises", "2012", "tonight", "lol", "RT",
+	    "@user", "#teamUSA", "http://t.co/abc", "can't", "won't", "I'm" };
+
+    public static void main(String[] args) throws Exception {
+	String confPath = args.length > 0 ? args[0] : "config/config.xml";
+	int tweetN = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+
+	Configure conf = new Configure(confPath);
+	TweetParser parser = new TweetParser(conf);
+	Pattern stopWordPattern = loadStopWordPattern(conf);
+
+	Random rand = new Random(7);
+	String[] tweets = new String[tweetN];
+	for (int i = 0; i < tweetN; i++) {
+	    StringBuilder text = new StringBuilder();
+	    int len = 5 + rand.nextInt(15);
+	    for (int k = 0; k < len; k++)
+		text.append(WORDS[rand.nextInt(WORDS.length)]).append(
+			rand.nextInt(5) == 0 ? "! " : " ");
+	    tweets[i] = text.toString();
+	}
+
+	boolean dictionary = conf.getDictionaryFile() != null
+		&& conf.getDictionaryFile().exists();
+	if (dictionary)
+	    parser.loadDictionary();
+
+	for (int round = 0; round < 3; round++) {
+	    long start = System.nanoTime();
+	    int check = 0;
+	    for (String text : tweets) {
+		HashMap<String, Integer> words = new HashMap<String, Integer>();
+		check += regexParseText(parser, stopWordPattern, text, words);
+		check += words.size();
+	    }
+	    double before = tweetN / ((System.nanoTime() - start) / 1e9);
+
+	    start = System.nanoTime();
+	    for (String text : tweets) {
+		HashMap<String, Integer> words = new HashMap<String, Integer>();
+		check -= parser.parseText(text, words);
+		check -= words.size();
+	    }
+	    double after = tweetN / ((System.nanoTime() - start) / 1e9);
+
+	    String terms = "";
+	    if (dictionary) {
+		start = System.nanoTime();
+		for (String text : tweets)
+		    parser.countTerms(text);
+		terms = ", countTerms "
+			+ (long) (tweetN / ((System.nanoTime() - start) / 1e9));
+	    }
+
+	    System.out.println("tweets/sec: regex " + (long) before
+		    + ", single pass " + (long) after + terms
+		    + (check == 0 ? "" : ", results differ!"));
+	}
+    }
+
+    static Pattern loadStopWordPattern(Configure conf) throws Exception {
+	BufferedReader reader = new BufferedReader(new FileReader(
+		conf.getStopWordFile()));
+	String line;
+	String stopWord = "";
+	while ((line = reader.readLine()) != null)
+	    stopWord += line.trim() + "|";
+	reader.close();
+	return Pattern.compile(stopWord.substring(0, stopWord.length() - 1));
+    }
+
+    /*
+     * the previous parseText
+     */
+    static int regexParseText(TweetParser parser, Pattern stopWordPattern,
+			      String text, HashMap<String, Integer> words) {
+	text = text.replaceAll("\\p{Punct}+", " ");
+	String[] tokens = parser.tokenize(text);
+
+	for (int i = 0; i < tokens.length; i++) {
+	    String token = parser.stemWord(tokens[i]).toLowerCase();
+	    if (token.length() == 1
+		    || stopWordPattern.matcher(token).matches()
+		    || token.matches("[0-9]+"))
+		continue;
+
+	    Integer occrNum = words.get(token);
+	    if (occrNum == null)
+		occrNum = 1;
+	    else
+		occrNum++;
+	    words.put(token, occrNum);
+	}
+
+	return tokens.length;
+    }
+}
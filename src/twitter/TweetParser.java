@@ -2,32 +2,33 @@ package twitter;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.CharBuffer;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Vector;
 import java.util.regex.Pattern;
 
 import javax.xml.parsers.ParserConfigurationException;
 
+import gnu.trove.TLongArrayList;
 import gnu.trove.TLongObjectHashMap;
 
 import opennlp.tools.tokenize.Tokenizer;
 import opennlp.tools.util.InvalidFormatException;
 
 import org.apache.log4j.Logger;
-import org.json.simple.JSONObject;
-import org.json.simple.JSONValue;
 import org.xml.sax.SAXException;
 
 import util.Configure;
 
-import util.Dictionary;
 import util.Document;
 import util.DocumentRandomAccess;
+import util.JsonScanner;
 import util.Parser;
 import util.Stemmer;
+import util.TermTable;
 
 
 import java.io.BufferedReader;
@@ -48,8 +49,35 @@ public class TweetParser extends Parser {
     Stemmer stemmer = null;
     Tokenizer tokenizer = null;
 
+    // stop words without regex meta characters are looked up by hash, the
+    // others are matched by stopWordPattern
+    TermTable stopWords = new TermTable();
     Pattern stopWordPattern = null;
     Pattern englishChecker = null;
+
+    // String.toLowerCase of the default locale equals ASCII lower case
+    static final boolean asciiLowerCase = "I".toLowerCase().equals("i");
+
+    // tokenizer state for current text, see {@link #nextToken()}
+    String text;
+    int pos;
+    int tokenNum;
+    boolean leadingEmpty;
+
+    // current token, stemmed and in lower case
+    char[] token = new char[64];
+    int tokenLen;
+
+    // distinct words of current text, filled by {@link #countTerms}
+    int[] termIds = new int[64];
+    float[] termIdfs = new float[64];
+    int[] termCounts = new int[64];
+    int termN;
+
+    // fields of raw and cleaned tweets
+    static final int ID = 0, RETID = 1, TEXT = 2, TIME = 3, DATE = 4;
+    JsonScanner scanner = new JsonScanner("id", "retid", "text", "time",
+	    "crtdt.$date");
     
     private TLongObjectHashMap<Document> docSet;
 
@@ -65,6 +93,25 @@ public class TweetParser extends Parser {
 	initEnglishChecker();
     }
 
+    /*
+     * share the stop words and patterns of other, they are not modified
+     * after construction
+     */
+    TweetParser(TweetParser other) throws IOException {
+	super(other.conf);
+
+	docSet = new TLongObjectHashMap<Document>();
+
+	stemmer = new Stemmer();
+	stopWords = other.stopWords;
+	stopWordPattern = other.stopWordPattern;
+	englishChecker = other.englishChecker;
+    }
+
+    public Parser newParser() throws IOException {
+	return new TweetParser(this);
+    }
+
     
     public void clearTweetSet() {
 	docSet.clear();
@@ -84,11 +131,17 @@ public class TweetParser extends Parser {
 	String line;
 	String stopWord = "";
 	while ((line = reader.readLine()) != null) {
-	    stopWord += line.trim() + "|";
+	    line = line.trim();
+	    if (line.matches("[^\\\\^$.|?*+()\\[\\]{}]*"))
+		stopWords.put(line, 1);
+	    else
+		stopWord += line + "|";
 	}
+	reader.close();
 
-	stopWordPattern = Pattern.compile(stopWord.substring(0,
-		stopWord.length() - 1));
+	if (stopWord.length() > 0)
+	    stopWordPattern = Pattern.compile(stopWord.substring(0,
+		    stopWord.length() - 1));
     }
 
     /*
@@ -106,11 +159,25 @@ public class TweetParser extends Parser {
      *  @return True if word is a stop word, false otherwise
      */
     public boolean isStopWord(String word) {
+	if (stopWords.get(word) >= 0)
+	    return true;
 	if (stopWordPattern != null)
 	    return stopWordPattern.matcher(word).matches();
 	return false;
     }
 
+    /*
+     * same as {@link #isStopWord(String)} for the current token
+     */
+    boolean isStopToken() {
+	if (stopWords.get(token, 0, tokenLen) >= 0)
+	    return true;
+	if (stopWordPattern != null)
+	    return stopWordPattern.matcher(CharBuffer.wrap(token, 0, tokenLen))
+		    .matches();
+	return false;
+    }
+
     
     /*
      * check whether a word is English or not, by matching 
@@ -154,35 +221,24 @@ public class TweetParser extends Parser {
      */
     public Document parseRawDocument(String line) {
 	Tweet tweet;
-	Long id = 0l, retid = 0l;
-	String text = "", date = "";
+	long id, retid;
+	String text;
 	try {
-	    JSONObject obj = (JSONObject) JSONValue.parse(line);
-	    id = (Long) obj.get("id");
-	    if (id == null) {
+	    if (!scanner.scan(line) || !scanner.has(ID))
 		return null;
-	    }
-
-	    retid = (Long) obj.get("retid");
-	    if (retid == null)
-		retid = 0l;
+	    id = scanner.getLong(ID);
+	    retid = scanner.has(RETID) ? scanner.getLong(RETID) : 0l;
 
-	    text = (String) obj.get("text");
+	    text = scanner.getString(TEXT);
 	    if (!isEnglish(text))
 		return null;
-	    JSONObject timeobj = (JSONObject) obj.get("crtdt");
-	    date = (String) timeobj.get("$date");
 	} catch (Exception e) {
 	    logger.warn(line);
 	    return null;
 	}
 
-	SimpleDateFormat dateFormat = new SimpleDateFormat(
-		"yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-	Date cdate;
 	try {
-	    cdate = dateFormat.parse(date);
-	    long ctime = cdate.getTime();
+	    long ctime = scanner.getTime(DATE);
 	    tweet = new Tweet(id, retid, 1, ctime, text);
 	} catch (ParseException e) {
 	    // TODO Auto-generated catch block
@@ -203,6 +259,35 @@ public class TweetParser extends Parser {
     }
 
     
+    /*
+     * (non-Javadoc)
+     * @see util.Parser#countWords(java.lang.String)
+     */
+    public void countWords(String docStr) {
+	if (!scanner.scan(docStr) || !scanner.has(TEXT))
+	    return;
+	HashMap<String, Integer> words = new HashMap<String, Integer>();
+	parseText(scanner.getString(TEXT), words);
+	for (String word : words.keySet())
+	    dict.add(word);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see util.Parser#parseWords(java.lang.String)
+     */
+    public Vector<String> parseWords(String text) {
+	Vector<String> words = new Vector<String>();
+	startTokens(text);
+	while (nextToken()) {
+	    // the empty token of a leading separator is no word to look for
+	    if (tokenLen == 0 || skipToken())
+		continue;
+	    words.add(new String(token, 0, tokenLen));
+	}
+	return words;
+    }
+
     /*
      * parse cleaned tweet, construct a {@Document} instance
      * text is converetd into word vector  
@@ -211,62 +296,162 @@ public class TweetParser extends Parser {
      * @see util.Parser#parseDocument(java.lang.String)
      */
     public Document parseDocument(String docStr){	
-	Long id = 0l, retid = 0l, time;
-	String text = "";
+	Tweet tweet = parseTweet(docStr);
+	if (tweet == null)
+	    return null;
+	return resolveDocument(tweet);
+    }
+    
+    
+    /*
+     * parse the fields of a cleaned tweet, the text is not vectorized yet.
+     * a tweet without time or English text gets support 0, it can only
+     * increase the support of its original tweet
+     * 
+     * @return null if the tweet can't be parsed
+     */
+    Tweet parseTweet(String docStr) {
+	long id, retid;
+	Long time;
+	String text;
 	
 	try {
-	    JSONObject obj = (JSONObject) JSONValue.parse(docStr);
-	    id = (Long) obj.get("id");
-	    if (id == null) {
+	    if (!scanner.scan(docStr)) {
+		logger.warn(docStr);
 		return null;
 	    }
+	    if (!scanner.has(ID))
+		return null;
+	    id = scanner.getLong(ID);
 
-	    //for a retweet, if it is in current window, then inc its support
-	    //otherwise regard this tweet as the original tweet
-	    retid = (Long) obj.get("retid");
-	    if(retid>0){		
-		
-		Document origDoc=docSet.get(retid);
-		if(origDoc!=null){
-		    origDoc.incSupport();
-		    return null;
-		}
-		else id=retid;
+	    if (!scanner.has(RETID)) {
+		logger.warn(docStr);
+		return null;
 	    }
+	    retid = scanner.getLong(RETID);
 
-	    time=(Long) obj.get("time");
-	    if(time==null)
-		return null;
-	    
-	    text = (String) obj.get("text");
-	    if (!isEnglish(text))
-		return null;
+	    time = scanner.has(TIME) ? scanner.getLong(TIME) : null;
+	    text = scanner.getString(TEXT);
 	} catch (Exception e) {
 	    logger.warn(docStr);
 	    return null;
 	}
-	
-	
-	HashMap<String, Integer> words = new HashMap<String, Integer>();
-	parseText(text,words);
-	
-	Document doc=new Document(id,1,time);
-	doc.initWordVector(words.size());
-	
-	for (Map.Entry<String, Integer> entry : words.entrySet()) {
-	    Dictionary.Word word=dict.retrieve(entry.getKey());
-	    if(word!=null)
-		doc.append(word.getId(), word.getIdf()*entry.getValue());
+
+	boolean valid = time != null && text != null && isEnglish(text);
+	return new Tweet(id, retid, valid ? 1 : 0, valid ? time : 0l,
+		valid ? text : null);
+    }
+    
+    
+    /*
+     * resolve retweets against the tweets of current window, construct a
+     * {@Document} instance for an original tweet
+     * 
+     * @param tweet a parsed tweet, its text is vectorized if it is not yet
+     * @return the document, or null if it is a retweet in current window
+     */
+    Document resolveDocument(Tweet tweet) {
+	long id = tweet.getId();
+
+	//for a retweet, if it is in current window, then inc its support
+	//otherwise regard this tweet as the original tweet
+	if (tweet.retid > 0) {
+	    Document origDoc = docSet.get(tweet.retid);
+	    if (origDoc != null) {
+		origDoc.incSupport();
+		return null;
+	    } else
+		id = tweet.retid;
 	}
-	
-	doc.reOrder();
-	doc.normalize();
-	
+
+	if (tweet.getSupport() == 0)
+	    return null;
+
+	if (tweet.text != null)
+	    vectorizeText(tweet);
+
+	Document doc = new Document(id, 1, tweet.getTime());
+	doc.setWordVector(tweet.getWordIds(), tweet.getWeights(),
+		tweet.getWordNum());
+
 	docSet.put(id, doc);
 	return doc;
     }
     
     
+    /*
+     * convert the text of a tweet into its normalized tf-idf word vector,
+     * the text is released afterwards
+     */
+    void vectorizeText(Tweet tweet) {
+	int n = countTerms(tweet.text);
+	
+	tweet.initWordVector(n);
+	for (int k = 0; k < n; k++)
+	    tweet.append(termIds[k], termIdfs[k] * termCounts[k]);
+	
+	tweet.reOrder();
+	tweet.normalize();
+	tweet.text = null;
+    }
+    
+    
+    /*
+     * (non-Javadoc)
+     * @see util.Parser#vectorizeDocuments(java.lang.String)
+     */
+    public void vectorizeDocuments(String path) throws IOException {
+	logger.info("vectorizing file " + path + ".txt");
+	BufferedReader in = new BufferedReader(new FileReader(path + ".txt"));
+	VectorFile out = new VectorFile();
+	out.startWrite(path, dict.getDictionaryFile());
+
+	String line;
+	long offset = 0;
+	int k = 0;
+	while ((line = in.readLine()) != null) {
+	    Tweet tweet = parseTweet(line);
+
+	    // an invalid tweet only matters if it is a retweet
+	    if (tweet != null && (tweet.getSupport() > 0 || tweet.retid > 0)) {
+		if (tweet.text != null)
+		    vectorizeText(tweet);
+		out.write(tweet, offset);
+		k++;
+	    }
+	    offset += line.length() + 1;
+	}
+
+	in.close();
+	out.endWrite();
+	logger.info(k + " tweets have been vectorized");
+    }
+    
+    
+    /*
+     * (non-Javadoc)
+     * @see util.Parser#loadVectors(java.lang.String, java.util.Vector, gnu.trove.TLongArrayList)
+     */
+    public boolean loadVectors(String path, Vector<Document> docs,
+	    TLongArrayList offsets) throws IOException {
+	VectorFile in = new VectorFile();
+	if (!in.startRead(path, dict.getDictionaryFile()))
+	    return false;
+
+	Tweet tweet;
+	while ((tweet = in.read()) != null) {
+	    Document doc = resolveDocument(tweet);
+	    if (doc != null) {
+		docs.add(doc);
+		offsets.add(in.getOffset());
+	    }
+	}
+
+	in.endRead();
+	return true;
+    }
+    
+    
     /*
      * parse a text string into a set of words, whose occurrence number is associated
      * 
@@ -275,15 +460,12 @@ public class TweetParser extends Parser {
      * @return  number of tokens within the text
      */
      int parseText(String text,HashMap<String, Integer> words) {
-	text=text.replaceAll("\\p{Punct}+", " ");
-	String[] tokens = tokenize(text);
-	
-
-	for (int i = 0; i < tokens.length; i++) {
-	    String token = stemWord(tokens[i]).toLowerCase();//tokens[i].toLowerCase();// 
-	    if (token.length()==1||isStopWord(token)||token.matches("[0-9]+"))
+	startTokens(text);
+	while (nextToken()) {
+	    if (skipToken())
 		continue;
 
+	    String token = new String(this.token, 0, tokenLen);
 	    Integer occrNum = words.get(token);
 	    if (occrNum == null)
 		occrNum = 1;
@@ -292,10 +474,148 @@ public class TweetParser extends Parser {
 	    words.put(token, occrNum);
 	}
 
-	return tokens.length;
+	return tokenNum;
+    }
+     
+     
+    /*
+     * parse a text string into dictionary words, the distinct words, their
+     * idf and occurrence number are kept in termIds, termIdfs and termCounts.
+     * words not in the dictionary are dropped
+     * 
+     * @param text input text string to be parsed
+     * @return number of distinct words
+     */
+    int countTerms(String text) {
+	termN = 0;
+	startTokens(text);
+	while (nextToken()) {
+	    if (skipToken())
+		continue;
+
+	    int id = dict.lookup(token, tokenLen);
+	    if (id < 0)
+		continue;
+
+	    // tweets are short, a scan is cheaper than a map
+	    int k = 0;
+	    while (k < termN && termIds[k] != id)
+		k++;
+	    if (k < termN) {
+		termCounts[k]++;
+		continue;
+	    }
+
+	    if (termN == termIds.length) {
+		termIds = Arrays.copyOf(termIds, termN * 2);
+		termIdfs = Arrays.copyOf(termIdfs, termN * 2);
+		termCounts = Arrays.copyOf(termCounts, termN * 2);
+	    }
+	    termIds[termN] = id;
+	    termIdfs[termN] = dict.getIdf(id);
+	    termCounts[termN] = 1;
+	    termN++;
+	}
+	return termN;
     }
      
      
+    /*
+     * start tokenizing a text. it is the same as replacing punctuations by
+     * space then splitting on white spaces, e.g., an empty leading token is
+     * generated if the text starts with a separator.
+     */
+    void startTokens(String text) {
+	this.text = text;
+	pos = 0;
+	tokenNum = 0;
+
+	boolean hasToken = false;
+	for (int i = 0; i < text.length() && !hasToken; i++)
+	    hasToken = !isSeparator(text.charAt(i));
+	leadingEmpty = text.length() == 0
+		|| (hasToken && isSeparator(text.charAt(0)));
+    }
+
+    /*
+     * stem the next token of text, put it into token in lower case
+     * 
+     * @return false if there is no more token
+     */
+    boolean nextToken() {
+	int len = text.length();
+	if (leadingEmpty)
+	    leadingEmpty = false;
+	else {
+	    while (pos < len && isSeparator(text.charAt(pos)))
+		pos++;
+	    if (pos == len)
+		return false;
+	    while (pos < len && !isSeparator(text.charAt(pos)))
+		stemmer.add(text.charAt(pos++));
+	}
+	stemmer.stem();
+	tokenNum++;
+
+	char[] buf = stemmer.getResultBuffer();
+	tokenLen = stemmer.getResultLength();
+	if (token.length < tokenLen)
+	    token = new char[tokenLen * 2];
+
+	boolean ascii = asciiLowerCase;
+	for (int i = 0; i < tokenLen; i++) {
+	    char c = buf[i];
+	    if (c >= 'A' && c <= 'Z')
+		c += 'a' - 'A';
+	    else if (c >= 0x80)
+		ascii = false;
+	    token[i] = c;
+	}
+
+	// non ASCII characters are left to String.toLowerCase
+	if (!ascii) {
+	    String lower = new String(buf, 0, tokenLen).toLowerCase();
+	    tokenLen = lower.length();
+	    if (token.length < tokenLen)
+		token = new char[tokenLen * 2];
+	    lower.getChars(0, tokenLen, token, 0);
+	}
+	return true;
+    }
+
+    /*
+     * @return true for a token of one character, a stop word or a number
+     */
+    boolean skipToken() {
+	if (tokenLen == 1 || isStopToken())
+	    return true;
+
+	if (tokenLen == 0)
+	    return false;
+	for (int i = 0; i < tokenLen; i++)
+	    if (token[i] < '0' || token[i] > '9')
+		return false;
+	return true;
+    }
+
+    /*
+     * white spaces(\s) and ASCII punctuations(\p{Punct})
+     */
+    static boolean isSeparator(char c) {
+	switch (c) {
+	case ' ':
+	case '\t':
+	case '\n':
+	case '\u000B':
+	case '\f':
+	case '\r':
+	    return true;
+	default:
+	    return (c >= '!' && c <= '/') || (c >= ':' && c <= '@')
+		    || (c >= '[' && c <= '`') || (c >= '{' && c <= '~');
+	}
+    }
+     
      
 
     /*
@@ -0,0 +1,137 @@
+package twitter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/*
+ * binary file(path.vec) of the vectorized tweets of one slot, so that
+ * clustering can load a slot without parsing and tokenizing its text again.
+ * the raw text stays in path.txt for display.
+ * 
+ * header: magic, version, length and modified time of path.txt, modified
+ * time of the dictionary. the file is stale if any of them changes.
+ * 
+ * record: id, retid, time, offset of the tweet in path.txt, valid flag,
+ * word number, word ids and weights in order.
+ */
+public class VectorFile {
+
+    static final int MAGIC = 0x54425643;
+    static final int VERSION = 1;
+
+    static final int BUFFER_SIZE = 1 << 16;
+
+    DataOutputStream out;
+    DataInputStream in;
+
+    // offset of the last read tweet in path.txt
+    long offset;
+
+    /*
+     * @param path slot file path(without suffix)
+     * 
+     * @param dictFile dictionary the weights are computed from
+     */
+    public void startWrite(String path, File dictFile) throws IOException {
+	File txt = new File(path + ".txt");
+	out = new DataOutputStream(new BufferedOutputStream(
+		new FileOutputStream(path + ".vec"), BUFFER_SIZE));
+	out.writeInt(MAGIC);
+	out.writeInt(VERSION);
+	out.writeLong(txt.length());
+	out.writeLong(txt.lastModified());
+	out.writeLong(dictFile.lastModified());
+    }
+
+    /*
+     * a tweet with support 0 has no time or English text, it is only kept
+     * to increase the support of its original tweet
+     * 
+     * @param offset offset of the tweet in path.txt
+     */
+    public void write(Tweet tweet, long offset) throws IOException {
+	out.writeLong(tweet.getId());
+	out.writeLong(tweet.retid);
+	out.writeLong(tweet.getTime());
+	out.writeLong(offset);
+	out.writeBoolean(tweet.getSupport() > 0);
+
+	int n = tweet.getWordNum();
+	out.writeInt(n);
+	for (int i = 0; i < n; i++)
+	    out.writeInt(tweet.getWordIds()[i]);
+	for (int i = 0; i < n; i++)
+	    out.writeFloat(tweet.getWeights()[i]);
+    }
+
+    public void endWrite() throws IOException {
+	out.flush();
+	out.close();
+    }
+
+    /*
+     * @return false if path.vec does not exist or is stale
+     */
+    public boolean startRead(String path, File dictFile) throws IOException {
+	File vec = new File(path + ".vec");
+	File txt = new File(path + ".txt");
+	if (!vec.exists())
+	    return false;
+
+	in = new DataInputStream(new BufferedInputStream(new FileInputStream(
+		vec), BUFFER_SIZE));
+	try {
+	    if (in.readInt() == MAGIC && in.readInt() == VERSION
+		    && in.readLong() == txt.length()
+		    && in.readLong() == txt.lastModified()
+		    && in.readLong() == dictFile.lastModified())
+		return true;
+	} catch (EOFException e) {
+	    // truncated file is stale
+	}
+	in.close();
+	return false;
+    }
+
+    /*
+     * @return next tweet, null at the end of file
+     */
+    public Tweet read() throws IOException {
+	long id;
+	try {
+	    id = in.readLong();
+	} catch (EOFException e) {
+	    return null;
+	}
+	long retid = in.readLong();
+	long time = in.readLong();
+	offset = in.readLong();
+	boolean valid = in.readBoolean();
+
+	Tweet tweet = new Tweet(id, retid, valid ? 1 : 0, time);
+	int n = in.readInt();
+	int[] ids = new int[n];
+	float[] weights = new float[n];
+	for (int i = 0; i < n; i++)
+	    ids[i] = in.readInt();
+	for (int i = 0; i < n; i++)
+	    weights[i] = in.readFloat();
+	tweet.setWordVector(ids, weights, n);
+	return tweet;
+    }
+
+    public long getOffset() {
+	return offset;
+    }
+
+    public void endRead() throws IOException {
+	in.close();
+    }
+}
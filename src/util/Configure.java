@@ -21,7 +21,7 @@ import org.xml.sax.SAXException;
 
 public class Configure {
     private enum ParamName {
-	platform, stopWord, dictionary, wordOccrT, tokenModel, startT, timeW, rawDocsD, docsD, meps, eps, minPts, logConf, port, topk,docN, unknown
+	platform, stopWord, dictionary, wordOccrT, tokenModel, startT, timeW, rawDocsD, docsD, meps, eps, minPts, logConf, port, topk,docN, neighborSearch, clusterMode, threads, convertThreads, convertOrder, dictionaryMode, dictionarySketchMB, accessorN, accessorMB, serverThreads, serverQueue, serverBacklog, requestTimeout, queryCacheN, queryCacheMB, topicCacheMB, httpPort, debugDir, unknown
     };
 
     public static long startTime = 0;
@@ -37,6 +37,7 @@ public class Configure {
     private File tokenModelFile = null;
     private File rawDocsDir = null;
     private File docsDir = null;
+    private File debugDir = null;
     
 
     private float totalDocN=10000000f;
@@ -45,6 +46,23 @@ public class Configure {
     private int minPtsValue = 100;
     private int portid=19899;
     private int topK=10;
+    private String neighborSearch = "linear";
+    private String clusterMode = "list";
+    private int threadN = 1;
+    private int convertThreadN = 1;
+    private String convertOrder = "strict";
+    private String dictionaryMode = "exact";
+    private int dictionarySketchMB = 64;
+    private int accessorN = 256;
+    private int accessorMB = 4096;
+    private int serverThreadN = Runtime.getRuntime().availableProcessors();
+    private int serverQueue = 64;
+    private int serverBacklog = 50;
+    private int requestTimeout = 60;
+    private int queryCacheN = 128;
+    private int queryCacheMB = 256;
+    private int topicCacheMB = 512;
+    private int httpPort = 0;
 
     String configFile = "data/config.xml";
 
@@ -118,6 +136,14 @@ public class Configure {
 	return rawDocsDir;
     }
 
+    /*
+     * @return directory to keep the ordered points of merged topics for
+     * debugging, null to keep them in memory only
+     */
+    public File getDebugDir() {
+	return debugDir;
+    }
+
     /*
      * @return the max epsilon value for OPTICS clustering
      */
@@ -132,6 +158,129 @@ public class Configure {
 	return mepsValue;
     }
 
+    /*
+     * @return the neighborhood search method for OPTICS, linear|prefix
+     */
+    public String getNeighborSearch() {
+	return neighborSearch;
+    }
+
+    /*
+     * @return list to cluster each inverted list, window for one pass over
+     * the time window
+     */
+    public String getClusterMode() {
+	return clusterMode;
+    }
+
+    /*
+     * @return number of threads for clustering a time window
+     */
+    public int getThreads() {
+	return threadN;
+    }
+
+    /*
+     * @return number of threads for converting raw documents
+     */
+    public int getConvertThreads() {
+	return convertThreadN;
+    }
+
+    /*
+     * @return strict to keep the order of raw documents in each slot file,
+     * relaxed to only keep the order within a file split
+     */
+    public String getConvertOrder() {
+	return convertOrder;
+    }
+
+    /*
+     * @return exact to keep every word while building the dictionary, pruned
+     * to keep only the words above the occurrence threshold
+     */
+    public String getDictionaryMode() {
+	return dictionaryMode;
+    }
+
+    /*
+     * @return MB of the count-min sketch of the pruned dictionary mode
+     */
+    public int getDictionarySketchMB() {
+	return dictionarySketchMB;
+    }
+
+    /*
+     * @return max number of slots the query server keeps open
+     */
+    public int getAccessorNum() {
+	return accessorN;
+    }
+
+    /*
+     * @return max MB of slot files the query server keeps mapped
+     */
+    public int getAccessorMB() {
+	return accessorMB;
+    }
+
+    /*
+     * @return number of threads serving queries
+     */
+    public int getServerThreads() {
+	return serverThreadN;
+    }
+
+    /*
+     * @return max number of accepted queries waiting for a serving thread,
+     * more are rejected
+     */
+    public int getServerQueue() {
+	return serverQueue;
+    }
+
+    /*
+     * @return max number of connections waiting to be accepted
+     */
+    public int getServerBacklog() {
+	return serverBacklog;
+    }
+
+    /*
+     * @return seconds a query may take since it is accepted
+     */
+    public int getRequestTimeout() {
+	return requestTimeout;
+    }
+
+    /*
+     * @return max number of merged query answers the web server caches
+     */
+    public int getQueryCacheNum() {
+	return queryCacheN;
+    }
+
+    /*
+     * @return max MB of merged query answers the web server caches
+     */
+    public int getQueryCacheMB() {
+	return queryCacheMB;
+    }
+
+    /*
+     * @return max MB of slot topics the web server caches
+     */
+    public int getTopicCacheMB() {
+	return topicCacheMB;
+    }
+
+    /*
+     * @return port of the http endpoint of the web server, 0 if it is off
+     */
+    public int getHttpPort() {
+	return httpPort;
+    }
+
     public float getTotalDocN(){
 	return totalDocN;
     }
@@ -222,6 +371,9 @@ public class Configure {
 		    break;
 		case docsD:
 		    docsDir = new File(paramValue);
+		    break;
+		case debugDir:
+		    debugDir = new File(paramValue);
 		    break;		
 		case eps:
 		    epsValue = Float.parseFloat(paramValue);
@@ -247,6 +399,57 @@ public class Configure {
 		case docN:
 		    totalDocN=Float.parseFloat(paramValue);
 		    break;
+		case neighborSearch:
+		    neighborSearch = paramValue;
+		    break;
+		case clusterMode:
+		    clusterMode = paramValue;
+		    break;
+		case threads:
+		    threadN = Integer.parseInt(paramValue);
+		    break;
+		case convertThreads:
+		    convertThreadN = Integer.parseInt(paramValue);
+		    break;
+		case convertOrder:
+		    convertOrder = paramValue;
+		    break;
+		case dictionaryMode:
+		    dictionaryMode = paramValue;
+		    break;
+		case dictionarySketchMB:
+		    dictionarySketchMB = Integer.parseInt(paramValue);
+		    break;
+		case accessorN:
+		    accessorN = Integer.parseInt(paramValue);
+		    break;
+		case accessorMB:
+		    accessorMB = Integer.parseInt(paramValue);
+		    break;
+		case serverThreads:
+		    serverThreadN = Integer.parseInt(paramValue);
+		    break;
+		case serverQueue:
+		    serverQueue = Integer.parseInt(paramValue);
+		    break;
+		case serverBacklog:
+		    serverBacklog = Integer.parseInt(paramValue);
+		    break;
+		case requestTimeout:
+		    requestTimeout = Integer.parseInt(paramValue);
+		    break;
+		case queryCacheN:
+		    queryCacheN = Integer.parseInt(paramValue);
+		    break;
+		case queryCacheMB:
+		    queryCacheMB = Integer.parseInt(paramValue);
+		    break;
+		case topicCacheMB:
+		    topicCacheMB = Integer.parseInt(paramValue);
+		    break;
+		case httpPort:
+		    httpPort = Integer.parseInt(paramValue);
+		    break;
 
 		default:
 		    Logger.getLogger(Configure.class).warn(
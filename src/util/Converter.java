@@ -3,10 +3,27 @@ package util;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.log4j.Logger;
 
@@ -31,6 +48,9 @@ public class Converter {
   
     Configure conf = null;
 
+    /* raw files larger than this are split into line aligned ranges */
+    static final long SPLIT_BYTES = 64L << 20;
+
     /*
      * @param conf {@link Configure} instance including inFile and outFile.
      * @param parser instance of child class of {@link Parser}
@@ -57,6 +77,9 @@ public class Converter {
 	    //parser.loadDictionary();
 	    dictFile.delete();
 	}	
+
+	if ("pruned".equals(conf.getDictionaryMode()))
+	    parser.dict.enablePruning((long) conf.getDictionarySketchMB() << 20);
     }
 
     /*
@@ -70,12 +93,18 @@ public class Converter {
 	 * thus an entry in the hash map is time slot(window)-->BufferedWriter for a file
 	 */
 	HashMap<Integer, BufferedWriter> out = new HashMap<Integer, BufferedWriter>();
-	for (File f : rawDocsDir.listFiles()) {
-	    logger.info("Processing file:" + f.getName());
+	int threads = conf.getConvertThreads();
+	if (threads > 1) {
+	    parallelConvert(rawDocsDir.listFiles(), threads,
+		    !"relaxed".equals(conf.getConvertOrder()), out);
+	} else {
+	    for (File f : rawDocsDir.listFiles()) {
+		logger.info("Processing file:" + f.getName());
 
-	    BufferedReader in = new BufferedReader(new FileReader(f));
-	    doConvert(in, out);
-	    in.close();
+		BufferedReader in = new BufferedReader(new FileReader(f));
+		doConvert(in, out);
+		in.close();
+	    }
 	}
 
 	for (BufferedWriter writer : out.values()) {
@@ -83,36 +112,244 @@ public class Converter {
 	    writer.close();
 	}
 
+	if (parser.dict.isPruning()) {
+	    parser.dict.startCounting();
+	    countWords(new TreeSet<Integer>(out.keySet()));
+	}
 	parser.saveDictionary();	
     }
 
+    /*
+     * second pass of the pruned dictionary, add the words of the converted
+     * documents of slots again
+     */
+    void countWords(TreeSet<Integer> slots) throws IOException {
+	for (int slot : slots) {
+	    BufferedReader in = new BufferedReader(new FileReader(docsDir
+		    .getPath() + "/" + slot + ".txt"));
+	    try {
+		String line;
+		while ((line = in.readLine()) != null)
+		    parser.countWords(line);
+	    } finally {
+		in.close();
+	    }
+	}
+    }
+
     void doConvert(BufferedReader in, HashMap<Integer, BufferedWriter> out)
 	    throws IOException {
 	
-	int slot;
 	String line;	
-	String str;	
 	Document doc;
-	BufferedWriter writer;
 	while ((line = in.readLine()) != null) {
 	    doc = parser.parseRawDocument(line);
 
-	    if (doc != null) {
-		str = doc.toString() + "\n";
-		slot = doc.getSlot();
-		writer = out.get(slot);
-		if (writer == null) {
-		    
-		    writer = new BufferedWriter(new FileWriter(
-			    docsDir.getPath()+"/"+ slot + ".txt"));
-		    out.put(slot, writer);
+	    if (doc != null)
+		getWriter(out, doc.getSlot()).write(doc.toString() + "\n");
+	}
+    }
+
+    BufferedWriter getWriter(HashMap<Integer, BufferedWriter> out, int slot)
+	    throws IOException {
+	BufferedWriter writer = out.get(slot);
+	if (writer == null) {
+	    writer = new BufferedWriter(new FileWriter(docsDir.getPath() + "/"
+		    + slot + ".txt"));
+	    out.put(slot, writer);
+	}
+	return writer;
+    }
+
+    /*
+     * convert the splits of raw files by a thread pool. each split is parsed
+     * by one thread into its own slot buffers and dictionary. the
+     * dictionaries are merged in the order of splits, so word ids are the
+     * same as a sequential run. a few splits are in flight at a time, which
+     * bounds the buffered documents.
+     * 
+     * @param ordered write the splits in order, so each slot file is the same
+     * as a sequential run. otherwise a split is written once parsed
+     */
+    void parallelConvert(File[] files, int threads, boolean ordered,
+			 HashMap<Integer, BufferedWriter> out) throws IOException {
+	Vector<Split> splits = split(files);
+
+	final BlockingQueue<Parser> workers = new ArrayBlockingQueue<Parser>(
+		threads);
+	for (int i = 0; i < threads; i++)
+	    workers.add(parser.newParser());
+
+	ExecutorService pool = Executors.newFixedThreadPool(threads);
+	CompletionService<Split> done = new ExecutorCompletionService<Split>(
+		pool);
+	Split[] parsed = new Split[splits.size()];
+	int next = 0, merged = 0;
+	try {
+	    while (merged < splits.size()) {
+		while (next < splits.size() && next - merged < 2 * threads) {
+		    Split split = splits.get(next++);
+		    if (split.start == 0)
+			logger.info("Processing file:" + split.file.getName());
+		    done.submit(new ConvertTask(split, workers));
+		}
+
+		Split split = done.take().get();
+		if (!ordered)
+		    write(split, out);
+		parsed[split.index] = split;
+
+		while (merged < splits.size() && parsed[merged] != null) {
+		    split = parsed[merged];
+		    parsed[merged++] = null;
+		    if (ordered)
+			write(split, out);
+		    parser.dict.merge(split.dict);
+		}
+	    }
+	} catch (InterruptedException e) {
+	    throw new IOException(e);
+	} catch (ExecutionException e) {
+	    if (e.getCause() instanceof IOException)
+		throw (IOException) e.getCause();
+	    throw new IOException(e.getCause());
+	} finally {
+	    pool.shutdownNow();
+	}
+    }
+
+    void write(Split split, HashMap<Integer, BufferedWriter> out)
+	    throws IOException {
+	for (Map.Entry<Integer, StringBuilder> entry : split.slots.entrySet())
+	    getWriter(out, entry.getKey()).append(entry.getValue());
+	split.slots = null;
+    }
+
+    /*
+     * split the files into ranges of about SPLIT_BYTES, each range ends
+     * after a line break
+     */
+    Vector<Split> split(File[] files) throws IOException {
+	Vector<Split> splits = new Vector<Split>();
+	byte[] buf = new byte[8192];
+	for (File f : files) {
+	    RandomAccessFile raf = new RandomAccessFile(f, "r");
+	    long length = raf.length(), start = 0;
+	    while (start < length) {
+		long end = start + SPLIT_BYTES;
+		if (end >= length) {
+		    end = length;
+		} else {
+		    // move end after the next line break
+		    raf.seek(end);
+		    int n = 0, i = 0;
+		    while (i == n && (n = raf.read(buf)) > 0) {
+			for (i = 0; i < n && buf[i] != '\n'; i++)
+			    ;
+			end += i < n ? i + 1 : n;
+		    }
+		    end = Math.min(end, length);
 		}
+		splits.add(new Split(splits.size(), f, start, end));
+		start = end;
+	    }
+	    raf.close();
+	}
+	return splits;
+    }
+
+    /*
+     * a line aligned byte range of a raw file, and the result of parsing it
+     */
+    static class Split {
+	int index;
+	File file;
+	long start;
+	long end;
+
+	// slot->encoded documents of the split
+	HashMap<Integer, StringBuilder> slots;
+	Dictionary dict;
+
+	Split(int index, File file, long start, long end) {
+	    this.index = index;
+	    this.file = file;
+	    this.start = start;
+	    this.end = end;
+	}
+    }
+
+    class ConvertTask implements Callable<Split> {
+	Split split;
+	BlockingQueue<Parser> workers;
 
-		writer.write(str);		
+	ConvertTask(Split split, BlockingQueue<Parser> workers) {
+	    this.split = split;
+	    this.workers = workers;
+	}
+
+	public Split call() throws IOException, InterruptedException {
+	    Parser worker = workers.take();
+	    FileInputStream file = new FileInputStream(split.file);
+	    try {
+		worker.dict = new Dictionary(conf);
+		split.slots = new HashMap<Integer, StringBuilder>();
+
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+			new RangeInputStream(file.getChannel(), split.start,
+				split.end)));
+		String line;
+		while ((line = in.readLine()) != null) {
+		    Document doc = worker.parseRawDocument(line);
+		    if (doc == null)
+			continue;
+
+		    StringBuilder buf = split.slots.get(doc.getSlot());
+		    if (buf == null) {
+			buf = new StringBuilder();
+			split.slots.put(doc.getSlot(), buf);
+		    }
+		    buf.append(doc.toString()).append('\n');
+		}
+		split.dict = worker.dict;
+		return split;
+	    } finally {
+		file.close();
+		workers.add(worker);
 	    }
 	}
     }
 
+    /*
+     * reads the byte range [start,end) of a file by positioned reads
+     */
+    static class RangeInputStream extends InputStream {
+	FileChannel channel;
+	long pos;
+	long end;
+
+	RangeInputStream(FileChannel channel, long start, long end) {
+	    this.channel = channel;
+	    this.pos = start;
+	    this.end = end;
+	}
+
+	public int read() throws IOException {
+	    byte[] b = new byte[1];
+	    return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException {
+	    if (pos >= end)
+		return -1;
+	    int n = channel.read(
+		    ByteBuffer.wrap(b, off, (int) Math.min(len, end - pos)), pos);
+	    if (n > 0)
+		pos += n;
+	    return n;
+	}
+    }
+
     /*
      * save the dictionary constructed from the dataset to disk
      */
@@ -0,0 +1,89 @@
+package util;
+
+/*
+ * count-min sketch of word occurrences with conservative update. a word is
+ * counted in one cell of each row, its estimate is the least of its cells.
+ * an estimate is never below the true count and exceeds it by at most
+ * e/width of the total count with probability 1-exp(-depth).
+ *
+ * the memory is fixed by the width and depth whatever the number of
+ * distinct words.
+ */
+public class CountMinSketch {
+    static final int DEPTH = 4;
+
+    final int[] cells;
+    final int mask;
+    long total;
+
+    /*
+     * @param maxBytes max bytes of the cells, the width of a row is a power
+     * of two
+     */
+    public CountMinSketch(long maxBytes) {
+	long width = Long.highestOneBit(Math.max(64, maxBytes / 4 / DEPTH));
+	width = Math.min(width, 1 << 28);
+	cells = new int[(int) width * DEPTH];
+	mask = (int) width - 1;
+    }
+
+    /*
+     * 64 bit FNV-1a hash of the chars of w
+     */
+    static long hash(String w) {
+	long h = 0xcbf29ce484222325L;
+	for (int i = 0; i < w.length(); i++) {
+	    h ^= w.charAt(i);
+	    h *= 0x100000001b3L;
+	}
+	return h;
+    }
+
+    /*
+     * cell of w in row i, rows are indexed by double hashing
+     */
+    int cell(long h, int i) {
+	int h1 = (int) h, h2 = (int) (h >>> 32) | 1;
+	return i * (mask + 1) + ((h1 + i * h2) & mask);
+    }
+
+    /*
+     * add occr occurrences of w, only the cells below the new estimate are
+     * raised
+     */
+    public void add(String w, int occr) {
+	long h = hash(w);
+	int estimate = Integer.MAX_VALUE;
+	for (int i = 0; i < DEPTH; i++)
+	    estimate = Math.min(estimate, cells[cell(h, i)]);
+	long target = Math.min((long) estimate + occr, Integer.MAX_VALUE);
+	for (int i = 0; i < DEPTH; i++) {
+	    int c = cell(h, i);
+	    if (cells[c] < target)
+		cells[c] = (int) target;
+	}
+	total += occr;
+    }
+
+    /*
+     * @return estimated occurrences of w, not below the true ones
+     */
+    public int estimate(String w) {
+	long h = hash(w);
+	int estimate = Integer.MAX_VALUE;
+	for (int i = 0; i < DEPTH; i++)
+	    estimate = Math.min(estimate, cells[cell(h, i)]);
+	return estimate;
+    }
+
+    /*
+     * @return bytes of the cells
+     */
+    public long getBytes() {
+	return 4L * cells.length;
+    }
+
+    public long getTotal() {
+	return total;
+    }
+}
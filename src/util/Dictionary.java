@@ -7,6 +7,7 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -22,8 +23,18 @@ public class Dictionary {
     // wordStr->word: map word string to Word instance
     public HashMap<String, Word> dict = null;
 
+    // binary snapshot mapped by loadDictionary, words are looked up in it
+    // instead of dict
+    DictionarySnapshot snapshot = null;
+
     // filter strange word string, e.g., @windy_linanda,KKKK
     private int occrThreshold = 1;
+
+    // pruning mode, see {@link #enablePruning}. occurrences of all words are
+    // estimated by the sketch, only the candidates are counted in dict in the
+    // second pass
+    CountMinSketch sketch = null;
+    boolean counting = false;
     
     float TotalDocs=10000000f;
 
@@ -46,6 +57,9 @@ public class Dictionary {
     }
 
     int add(String w, int occr) {
+	if (sketch != null)
+	    return addPruned(w, occr);
+
 	Word word = dict.get(w);
 	if (word != null)
 	    word.occr += occr;
@@ -57,8 +71,105 @@ public class Dictionary {
 	return word.getId();
     }
 
+    /*
+     * only keep the words occurring more than occrThreshold, in two passes
+     * over the documents. the first pass counts all words by a count-min
+     * sketch of at most maxBytes, no word is kept. after
+     * {@link #startCounting} the documents are added again, and exact
+     * counters are kept only for the candidates, words whose estimate is
+     * above the threshold. the memory is thus bounded by the sketch and the
+     * candidates instead of every distinct word.
+     * 
+     * the kept words and their occurrences are the same as without pruning.
+     * their ids are given in the order of first appearance in the second
+     * pass among the candidates. the dictionary must be empty.
+     */
+    public void enablePruning(long maxBytes) {
+	sketch = new CountMinSketch(maxBytes);
+	counting = false;
+    }
+
+    public boolean isPruning() {
+	return sketch != null;
+    }
+
+    /*
+     * start the second pass of pruning, see {@link #enablePruning}
+     */
+    public void startCounting() {
+	counting = true;
+	dict.clear();
+	logger.info("counting the candidates of " + sketch.getTotal()
+		+ " word occurrences, sketch of " + (sketch.getBytes() >> 20)
+		+ " MB");
+    }
+
+    /*
+     * @return id of w, 0 if it is not counted exactly
+     */
+    int addPruned(String w, int occr) {
+	if (!counting) {
+	    sketch.add(w, occr);
+	    return 0;
+	}
+
+	Word word = dict.get(w);
+	if (word != null)
+	    word.occr += occr;
+	else if (sketch.estimate(w) > occrThreshold) {
+	    word = new Word(w, dict.size() + 1, occr);
+	    dict.put(w, word);
+	} else
+	    return 0;
+	return word.getId();
+    }
+
+    /*
+     * add the words of other with their occurrences. words new to this
+     * dictionary are added in the order of their ids in other, so merging
+     * the dictionaries of consecutive parts of a collection in order gives
+     * the ids of adding the whole collection
+     */
+    public void merge(Dictionary other) {
+	Word[] words = new Word[other.dict.size()];
+	for (Word w : other.dict.values())
+	    words[w.id - 1] = w;
+	for (Word w : words)
+	    add(w.raw, w.occr);
+    }
+
     public Word retrieve(String w){	
-	return dict.get(w);
+	if (snapshot == null)
+	    return dict.get(w);
+	return retrieve(w.toCharArray(), w.length());
+    }
+    
+    /*
+     * look up a word stored in a char buffer of a loaded dictionary, the
+     * words being built are looked up before loadDictionary
+     * 
+     * @param buf word chars start at 0
+     * @param len length of the word
+     */
+    public Word retrieve(char[] buf, int len) {
+	if (snapshot == null)
+	    return dict.get(new String(buf, 0, len));
+	int id = lookup(buf, len);
+	return id < 0 ? null : new Word(id, snapshot.getIdf(id));
+    }
+    
+    /*
+     * look up a word stored in a char buffer of a loaded dictionary, without
+     * creating any object once it is loaded
+     * 
+     * @return id of the word, -1 if it is not in the dictionary
+     */
+    public int lookup(char[] buf, int len) {
+	if (snapshot == null) {
+	    Word word = dict.get(new String(buf, 0, len));
+	    return word == null ? -1 : word.getId();
+	}
+	return snapshot.lookup(buf, 0, len);
     }
     
     
@@ -67,41 +178,83 @@ public class Dictionary {
 
     }
     
+    /*
+     * @return the word of id in a loaded dictionary, null for unknown ids or
+     * before loadDictionary
+     */
+    public String getWord(int id) {
+	return snapshot == null ? null : snapshot.getWord(id);
+    }
+    
+    /*
+     * @return idf of word id in a loaded dictionary, 0 for unknown ids or
+     * before loadDictionary
+     */
     public float getIdf(int id){
-	return (float) Math.log(dict.size()/(1.0f+dict.get(id).getOccr()));
+	return snapshot == null ? 0f : snapshot.getIdf(id);
+    }
+    
+    /*
+     * @return occurrence of word id in a loaded dictionary, 0 for unknown ids
+     * or before loadDictionary
+     */
+    public int getOccr(int id) {
+	return snapshot == null ? 0 : snapshot.getOccr(id);
     }
     
+    float idf(int occrNum) {
+	return (float) (Math.log(TotalDocs/(1f+occrNum)));
+    }
+    
+    public File getDictionaryFile() {
+	return dictFile;
+    }
+
     /*
      * @return number of enties of the dictionary
      */
     public int getSize(){
-	return dict.size();
+	return snapshot != null ? snapshot.size() : dict.size();
     }
 
     public void loadDictionary()throws IOException{
 	loadDictionary(dictFile);
     }
     
+    /*
+     * load the words occurring more than the threshold. the binary snapshot
+     * of the dictionary file is mapped, it is rebuilt from the text if it is
+     * missing or stale
+     */
     public void loadDictionary(File dictFile) throws IOException {
 	logger.info("loading dictionary from "+dictFile.getName());
-	BufferedReader in = new BufferedReader(new FileReader(dictFile));
-	String line;
-	String word;
-	int occrNum;
-	int wid;
-
-	while ((line = in.readLine()) != null) {	    
-	    String[] field = line.split("\t");
-	    
-	    wid=Integer.parseInt(field[0]);
-	    word = field[1];	   	    
-	    occrNum = Integer.parseInt(field[2]);
-	    if(occrNum>occrThreshold)
-		dict.put(word, new Word(wid,(float) (Math.log(TotalDocs/(1f+occrNum)))));	    
+	snapshot = DictionarySnapshot.open(dictFile, occrThreshold, TotalDocs);
+	if (snapshot == null) {
+	    logger.info("building snapshot of " + dictFile.getName());
+	    loadRawDictionary(dictFile);
+	    saveSnapshot(dictFile, dict.values());
+	    dict.clear();
+	    snapshot = DictionarySnapshot.open(dictFile, occrThreshold,
+		    TotalDocs);
 	}
-	in.close();
 	
-	logger.info(dict.size()+" entities have been loaded\n");
+	logger.info(snapshot.size()+" entities have been loaded\n");
+    }
+    
+    /*
+     * write the snapshot of the kept words, as loadDictionary would load
+     * them from dictFile
+     */
+    void saveSnapshot(File dictFile, Collection<Word> words)
+	    throws IOException {
+	List<Word> kept = new ArrayList<Word>(words.size());
+	for (Word w : words)
+	    if (w.getOccr() > occrThreshold)
+		kept.add(w);
+	float[] idfs = new float[kept.size()];
+	for (int i = 0; i < idfs.length; i++)
+	    idfs[i] = idf(kept.get(i).getOccr());
+	DictionarySnapshot.write(dictFile, occrThreshold, TotalDocs, kept, idfs);
     }
     
     /*
@@ -139,6 +292,7 @@ public class Dictionary {
 	}
 	out.flush();
 	out.close();
+	saveSnapshot(dictFile, dict.values());
 	logger.info(dict.size() + " entities have been saved to "
 		+ dictFile.getName()+"\n");	
     }
@@ -155,6 +309,7 @@ public class Dictionary {
 	}
 	out.flush();
 	out.close();
+	saveSnapshot(dictFile, list);
 	logger.info(list.size() + " entities have been saved to "
 		+ dictFile.getName()+"\n");
 	
@@ -0,0 +1,104 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import util.Dictionary.Word;
+
+/*
+ * build a dictionary from a zipf like word stream with and without pruning,
+ * report the peak and retained heap of each mode and check that both keep
+ * the same words with the same occurrences. the pruned mode reads the
+ * stream twice. the peak is sampled after gc at 20 points of each pass.
+ *
+ * Usage: DictionaryBenchmark configFile [tokenNum]
+ */
+public class DictionaryBenchmark {
+
+    public static void main(String[] args) throws Exception {
+	Configure conf = new Configure(args[0]);
+	int tokenN = args.length > 1 ? Integer.parseInt(args[1]) : 20000000;
+	System.out.println("tokens " + tokenN + ", occurrence threshold "
+		+ conf.getWordOccrThreshold());
+
+	List<Word> exact = build(conf, false, tokenN);
+	List<Word> pruned = build(conf, true, tokenN);
+
+	boolean same = exact.size() == pruned.size();
+	for (int i = 0; same && i < exact.size(); i++) {
+	    Word w1 = exact.get(i), w2 = pruned.get(i);
+	    same = w1.occr == w2.occr && w1.raw.equals(w2.raw);
+	}
+	System.out.println(exact.size() + " words kept, same dictionary: "
+		+ same);
+    }
+
+    /*
+     * @return the kept words by their strings, ids differ between the modes
+     */
+    static List<Word> build(Configure conf, boolean pruned, int tokenN)
+	    throws Exception {
+	long before = usedMemory();
+	long[] peak = new long[1];
+
+	long start = System.nanoTime();
+	Dictionary dict = new Dictionary(conf);
+	if (pruned) {
+	    dict.enablePruning((long) conf.getDictionarySketchMB() << 20);
+	    start += addWords(dict, tokenN, before, peak);
+	    dict.startCounting();
+	}
+	start += addWords(dict, tokenN, before, peak);
+	long time = System.nanoTime() - start;
+
+	long retained = usedMemory() - before;
+	peak[0] = Math.max(peak[0], retained);
+	System.out.println((pruned ? "pruned" : "exact ") + ": "
+		+ (time / 1000000) + " ms, peak live heap " + (peak[0] >> 20)
+		+ " MB, retained " + (retained >> 20) + " MB, "
+		+ dict.getSize() + " strings");
+
+	List<Word> words = new ArrayList<Word>();
+	for (Word w : dict.dict.values())
+	    if (w.occr > conf.getWordOccrThreshold())
+		words.add(w);
+	Collections.sort(words, new Comparator<Word>() {
+	    public int compare(Word w1, Word w2) {
+		return w1.raw.compareTo(w2.raw);
+	    }
+	});
+	return words;
+    }
+
+    /*
+     * add the word stream to dict, sampling the peak heap above before
+     *
+     * @return nanoseconds spent by the sampling gc, not to be timed
+     */
+    static long addWords(Dictionary dict, int tokenN, long before, long[] peak) {
+	long gcTime = 0;
+	// ranks are log uniform, so word frequencies follow zipf's law
+	Random rand = new Random(11);
+	double logV = Math.log(50000000);
+	for (int i = 0; i < tokenN; i++) {
+	    if (i % (tokenN / 20) == 0) {
+		long gcStart = System.nanoTime();
+		peak[0] = Math.max(peak[0], usedMemory() - before);
+		gcTime += System.nanoTime() - gcStart;
+	    }
+	    long rank = (long) Math.exp(rand.nextDouble() * logV);
+	    dict.add("w" + Long.toString(rank * 2654435761L % 1000000007L, 36));
+	}
+	return gcTime;
+    }
+
+    static long usedMemory() {
+	Runtime rt = Runtime.getRuntime();
+	for (int i = 0; i < 3; i++)
+	    System.gc();
+	return rt.totalMemory() - rt.freeMemory();
+    }
+}
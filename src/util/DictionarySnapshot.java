@@ -0,0 +1,271 @@
+package util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * binary snapshot(dictionary file path + ".bin") of a loaded dictionary. it
+ * is memory mapped, so loading costs no parsing and no object per word.
+ *
+ * header: magic, version, length and modified time of the dictionary file,
+ * occurrence threshold and total document number the idf is computed from,
+ * word number, max id, hash table size, byte number of all words. the
+ * snapshot is stale if any of them changes.
+ *
+ * body: idf, occurrence and word position(-1 for none) indexed by id, id and
+ * byte offset of each word, open addressing hash table of word position+1(0
+ * for empty slots), utf-8 bytes of all words.
+ *
+ * a snapshot is read only after it is opened, it can be shared by threads.
+ */
+public class DictionarySnapshot {
+
+    static final int MAGIC = 0x54424443;
+    static final int VERSION = 2;
+    static final Charset UTF8 = Charset.forName("UTF-8");
+    static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 4 + 4 + 4 + 4 + 4;
+
+    float[] idfs;
+    int[] occrs;
+    int wordN;
+
+    IntBuffer positions;
+    IntBuffer ids;
+    IntBuffer offsets;
+    IntBuffer table;
+    ByteBuffer bytes;
+    int mask;
+
+    public static File fileOf(File dictFile) {
+	return new File(dictFile.getPath() + ".bin");
+    }
+
+    /*
+     * @param words the words kept by loading the dictionary
+     * @param idfs idf of each word in words
+     */
+    public static void write(File dictFile, int occrThreshold,
+	    float totalDocs, List<Dictionary.Word> words, float[] idfs)
+	    throws IOException {
+	int wordN = words.size(), maxId = 0, byteN = 0;
+	byte[][] encoded = new byte[wordN][];
+	for (int i = 0; i < wordN; i++) {
+	    maxId = Math.max(maxId, words.get(i).getId());
+	    encoded[i] = words.get(i).getWord().getBytes(UTF8);
+	    byteN += encoded[i].length;
+	}
+
+	int tableSize = 16;
+	while (tableSize < wordN * 2)
+	    tableSize <<= 1;
+	int[] table = new int[tableSize];
+	for (int i = 0; i < wordN; i++) {
+	    String w = words.get(i).getWord();
+	    int slot = hash(w) & (tableSize - 1);
+	    while (table[slot] != 0)
+		slot = (slot + 1) & (tableSize - 1);
+	    table[slot] = i + 1;
+	}
+
+	float[] idfById = new float[maxId + 1];
+	int[] occrById = new int[maxId + 1];
+	int[] posById = new int[maxId + 1];
+	Arrays.fill(posById, -1);
+	for (int i = 0; i < wordN; i++) {
+	    int id = words.get(i).getId();
+	    idfById[id] = idfs[i];
+	    occrById[id] = words.get(i).getOccr();
+	    posById[id] = i;
+	}
+
+	// written aside and renamed, so that a reader never maps a partially
+	// written snapshot whose header already matches dictFile
+	File file = fileOf(dictFile);
+	File tmp = new File(file.getPath() + ".tmp");
+	DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+		new FileOutputStream(tmp), 1 << 16));
+	out.writeInt(MAGIC);
+	out.writeInt(VERSION);
+	out.writeLong(dictFile.length());
+	out.writeLong(dictFile.lastModified());
+	out.writeInt(occrThreshold);
+	out.writeFloat(totalDocs);
+	out.writeInt(wordN);
+	out.writeInt(maxId);
+	out.writeInt(tableSize);
+	out.writeInt(byteN);
+
+	for (float idf : idfById)
+	    out.writeFloat(idf);
+	for (int occr : occrById)
+	    out.writeInt(occr);
+	for (int pos : posById)
+	    out.writeInt(pos);
+	for (Dictionary.Word w : words)
+	    out.writeInt(w.getId());
+	int offset = 0;
+	for (byte[] word : encoded) {
+	    out.writeInt(offset);
+	    offset += word.length;
+	}
+	out.writeInt(offset);
+	for (int slot : table)
+	    out.writeInt(slot);
+	for (byte[] word : encoded)
+	    out.write(word);
+	out.flush();
+	out.close();
+	if (!tmp.renameTo(file))
+	    throw new IOException("failed to replace " + file);
+    }
+
+    /*
+     * map the snapshot of dictFile
+     *
+     * @return null if the snapshot does not exist or is stale
+     */
+    public static DictionarySnapshot open(File dictFile, int occrThreshold,
+	    float totalDocs) throws IOException {
+	File file = fileOf(dictFile);
+	if (!file.exists() || file.length() < HEADER_SIZE)
+	    return null;
+
+	RandomAccessFile raf = new RandomAccessFile(file, "r");
+	MappedByteBuffer buf;
+	try {
+	    buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+		    raf.length());
+	} finally {
+	    raf.close();
+	}
+
+	if (buf.getInt() != MAGIC || buf.getInt() != VERSION
+		|| buf.getLong() != dictFile.length()
+		|| buf.getLong() != dictFile.lastModified()
+		|| buf.getInt() != occrThreshold || buf.getFloat() != totalDocs)
+	    return null;
+
+	DictionarySnapshot snapshot = new DictionarySnapshot();
+	int wordN = buf.getInt(), maxId = buf.getInt(), tableSize = buf
+		.getInt(), byteN = buf.getInt();
+	long size = HEADER_SIZE + 12L * (maxId + 1) + 4L * wordN + 4L
+		* (wordN + 1) + 4L * tableSize + byteN;
+	if (size != file.length())
+	    return null;
+
+	snapshot.wordN = wordN;
+	snapshot.mask = tableSize - 1;
+	snapshot.idfs = new float[maxId + 1];
+	buf.asFloatBuffer().get(snapshot.idfs);
+	buf.position(buf.position() + 4 * (maxId + 1));
+	snapshot.occrs = new int[maxId + 1];
+	buf.asIntBuffer().get(snapshot.occrs);
+	buf.position(buf.position() + 4 * (maxId + 1));
+
+	snapshot.positions = slice(buf, 4 * (maxId + 1)).asIntBuffer();
+	snapshot.ids = slice(buf, 4 * wordN).asIntBuffer();
+	snapshot.offsets = slice(buf, 4 * (wordN + 1)).asIntBuffer();
+	snapshot.table = slice(buf, 4 * tableSize).asIntBuffer();
+	snapshot.bytes = slice(buf, byteN);
+	return snapshot;
+    }
+
+    static ByteBuffer slice(ByteBuffer buf, int length) {
+	ByteBuffer slice = buf.slice();
+	slice.limit(length);
+	buf.position(buf.position() + length);
+	return slice;
+    }
+
+    /*
+     * @return id of the word buf[off,off+len), -1 if it is not in the
+     * dictionary
+     */
+    public int lookup(char[] buf, int off, int len) {
+	int h = 0;
+	for (int i = off; i < off + len; i++)
+	    h = 31 * h + buf[i];
+	h ^= (h >>> 16);
+
+	for (int slot = h & mask;; slot = (slot + 1) & mask) {
+	    int pos = table.get(slot) - 1;
+	    if (pos < 0)
+		return -1;
+	    if (matches(offsets.get(pos), offsets.get(pos + 1), buf, off, len))
+		return ids.get(pos);
+	}
+    }
+
+    /*
+     * whether the utf-8 bytes [start,end) are the word buf[off,off+len)
+     */
+    boolean matches(int start, int end, char[] buf, int off, int len) {
+	// an ASCII word has a byte per char, others have more bytes
+	if (end - start < len)
+	    return false;
+	int i = 0;
+	while (i < len && buf[off + i] < 0x80) {
+	    if (bytes.get(start + i) != buf[off + i])
+		return false;
+	    i++;
+	}
+	if (i == len)
+	    return end - start == len;
+
+	byte[] word = new String(buf, off, len).getBytes(UTF8);
+	if (word.length != end - start)
+	    return false;
+	for (i = 0; i < word.length; i++)
+	    if (bytes.get(start + i) != word[i])
+		return false;
+	return true;
+    }
+
+    /*
+     * @return the word of id, null if it is not in the dictionary
+     */
+    public String getWord(int id) {
+	int pos = id >= 0 && id < positions.limit() ? positions.get(id) : -1;
+	if (pos < 0)
+	    return null;
+	int start = offsets.get(pos);
+	byte[] word = new byte[offsets.get(pos + 1) - start];
+	for (int i = 0; i < word.length; i++)
+	    word[i] = bytes.get(start + i);
+	return new String(word, UTF8);
+    }
+
+    static int hash(String w) {
+	int h = w.hashCode();
+	return h ^ (h >>> 16);
+    }
+
+    /*
+     * @return idf of the word id, 0 if it is not in the dictionary
+     */
+    public float getIdf(int id) {
+	return id >= 0 && id < idfs.length ? idfs[id] : 0f;
+    }
+
+    /*
+     * @return occurrence of the word id, 0 if it is not in the dictionary
+     */
+    public int getOccr(int id) {
+	return id >= 0 && id < occrs.length ? occrs[id] : 0;
+    }
+
+    public int size() {
+	return wordN;
+    }
+}
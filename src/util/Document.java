@@ -2,13 +2,10 @@ package util;
 
 import java.io.IOException;
 import java.io.StringWriter;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 import java.util.Vector;
 
 import org.json.simple.JSONObject;
-import org.json.simple.JSONValue;
 
 
 /*
@@ -20,7 +17,20 @@ public class Document implements Comparable<Document> {
     
     protected long time;
     protected int support;
-    protected Vector<Word> vec;
+
+    // word vector, ids in the first wordN entries are in order after
+    // reOrder()
+    protected int[] wordIds = new int[0];
+    protected float[] weights = new float[0];
+    protected int wordN = 0;
+
+    // fields of an encoded document, see {@link #decode(String)}
+    static final int ID = 0, SUPPORT = 1, TIME = 2, VEC = 3;
+    static final ThreadLocal<JsonScanner> scanners = new ThreadLocal<JsonScanner>() {
+	protected JsonScanner initialValue() {
+	    return new JsonScanner("id", "spt", "time", "vec");
+	}
+    };
 
     
     public Document(long id, int support, long time) {
@@ -35,18 +45,60 @@ public class Document implements Comparable<Document> {
 
     
     public void initWordVector(int size) {
-	vec = new Vector<Word>(size);
+	wordIds = new int[size];
+	weights = new float[size];
+	wordN = 0;
     }
 
     /*
+     * a copy of the word vector, kept for compatibility. use
+     * {@link #getWordIds()} and {@link #getWeights()} in hot code
+     * 
      * @return the word vector of this document
      */
     public Vector<Word> getWordVector() {
+	Vector<Word> vec = new Vector<Word>(wordN);
+	for (int i = 0; i < wordN; i++)
+	    vec.add(new Word(wordIds[i], weights[i]));
 	return vec;
     }
 
     public void setWordVector(Vector<Word> v) {
-	vec = v;
+	initWordVector(v.size());
+	for (Word w : v)
+	    append(w.id, w.weight);
+    }
+
+    /*
+     * share the word vector arrays, ids must be in order
+     * 
+     * @param n number of words
+     */
+    public void setWordVector(int[] ids, float[] weights, int n) {
+	wordIds = ids;
+	this.weights = weights;
+	wordN = n;
+    }
+
+    /*
+     * @return word ids, only the first {@link #getWordNum()} are valid
+     */
+    public int[] getWordIds() {
+	return wordIds;
+    }
+
+    /*
+     * @return word weights, aligned with {@link #getWordIds()}
+     */
+    public float[] getWeights() {
+	return weights;
+    }
+
+    /*
+     * @return number of words in the word vector
+     */
+    public int getWordNum() {
+	return wordN;
     }
 
     /*
@@ -102,25 +154,51 @@ public class Document implements Comparable<Document> {
      * @param weight weight(e.g., tf*idf) of the word
      */
     public void append(int id, float weight) {
-	vec.add(new Word(id, weight));
+	if (wordN == wordIds.length) {
+	    int size = Math.max(4, wordN * 2);
+	    wordIds = Arrays.copyOf(wordIds, size);
+	    weights = Arrays.copyOf(weights, size);
+	}
+	wordIds[wordN] = id;
+	weights[wordN] = weight;
+	wordN++;
     }
 
+    /*
+     * sort words by id, the arrays are trimmed to the number of words
+     */
     public void reOrder() {
-	Collections.sort(vec);
+	// insertion sort, word vectors are short
+	for (int i = 1; i < wordN; i++) {
+	    int id = wordIds[i];
+	    float weight = weights[i];
+	    int j = i - 1;
+	    for (; j >= 0 && wordIds[j] > id; j--) {
+		wordIds[j + 1] = wordIds[j];
+		weights[j + 1] = weights[j];
+	    }
+	    wordIds[j + 1] = id;
+	    weights[j + 1] = weight;
+	}
+
+	if (wordIds.length != wordN) {
+	    wordIds = Arrays.copyOf(wordIds, wordN);
+	    weights = Arrays.copyOf(weights, wordN);
+	}
     }
 
     public void normalize() {
 	float sum = 0f;
-	for (int i = 0; i < vec.size(); i++){
-	    sum += vec.get(i).weight*vec.get(i).weight;
-	    if(vec.get(i).weight<0){
+	for (int i = 0; i < wordN; i++){
+	    sum += weights[i]*weights[i];
+	    if(weights[i]<0){
 		System.out.println("minus");
 	    }
 	}
 
 	sum=(float) Math.sqrt(sum);
-	for (int i = 0; i < vec.size(); i++)
-	    vec.get(i).weight /= sum;
+	for (int i = 0; i < wordN; i++)
+	    weights[i] /= sum;
     }
 
     /*
@@ -131,37 +209,39 @@ public class Document implements Comparable<Document> {
      * @return the similarity score
      */
     public float sim(Document other) {
-	return cosine(this.vec, other.vec);
+	return cosine(wordIds, weights, wordN, other.wordIds, other.weights,
+		other.wordN);
     }
 
     /*
      * the word id in each vector must be in order(desc or asce)
      */
-    float cosine(Vector<Word> vec1, Vector<Word> vec2) {
+    static float cosine(int[] ids1, float[] w1, int n1, int[] ids2,
+			float[] w2, int n2) {
 
-	if (vec1.size() == 0 || vec2.size() == 0)
+	if (n1 == 0 || n2 == 0)
 	    return 0f;
 
-	int id1 = vec1.get(0).getId();
-	int id2 = vec2.get(0).getId();
+	int id1 = ids1[0];
+	int id2 = ids2[0];
 	float ret = 0f;
 	int i = 0, j = 0;
 	while (true) {
 	    if (id1 == id2) {
-		ret += vec1.get(i).getWeight() * vec2.get(j).getWeight();
-		if (++i < vec1.size() && ++j < vec2.size()) {
-		    id1 = vec1.get(i).getId();
-		    id2 = vec2.get(j).getId();
+		ret += w1[i] * w2[j];
+		if (++i < n1 && ++j < n2) {
+		    id1 = ids1[i];
+		    id2 = ids2[j];
 		} else
 		    break;
 	    } else if (id1 < id2) {
-		if (++i < vec1.size())
-		    id1 = vec1.get(i).getId();
+		if (++i < n1)
+		    id1 = ids1[i];
 		else
 		    break;
 	    } else {
-		if (++j < vec2.size())
-		    id2 = vec2.get(j).getId();
+		if (++j < n2)
+		    id2 = ids2[j];
 		else
 		    break;
 	    }
@@ -185,9 +265,9 @@ public class Document implements Comparable<Document> {
 	jsonTweet.put("time", new Long(time));
 
 	JSONObject jsonVec = new JSONObject();
-	for (int i = 0; i < vec.size(); i++)
-	    jsonVec.put(vec.get(i).getId(), vec.get(i).getWeight());
-	if (vec.size() > 0)
+	for (int i = 0; i < wordN; i++)
+	    jsonVec.put(wordIds[i], weights[i]);
+	if (wordN > 0)
 	    jsonTweet.put("vec", jsonVec);
 
 	StringWriter out = new StringWriter();
@@ -219,25 +299,18 @@ public class Document implements Comparable<Document> {
     }
 
     public void decode(String docStr) {
-	
-	JSONObject obj = (JSONObject) JSONValue.parse(docStr);
-
-	id = (Long) obj.get("id");
-	time=(Long)obj.get("time");
-	long spt = (Long) obj.get("spt");
-	support=(int) spt;
-	@SuppressWarnings("unchecked")
-	HashMap<String, Double> vecObj = (HashMap<String, Double>) obj
-		.get("vec");
-	Vector<Word> vec = new Vector<Word>(vecObj.size());
-	
-	double w;
-	for (Map.Entry<String, Double> entry : vecObj.entrySet()) {
-	    w=(Double)entry.getValue();	    
-	    vec.add(new Word(Integer.parseInt(entry.getKey()), (float)w));
-	}
-	
-	this.vec=vec;
+	JsonScanner scanner = scanners.get();
+	if (!scanner.scan(docStr))
+	    throw new IllegalArgumentException(docStr);
+
+	id = scanner.getLong(ID);
+	time = scanner.getLong(TIME);
+	support = (int) scanner.getLong(SUPPORT);
+	initWordVector(16);
+	if (!scanner.getVector(VEC, this))
+	    throw new IllegalArgumentException("no vector: " + docStr);
+	// the encoded vector is unordered
+	reOrder();
     }
 
     public class Word implements Comparable<Word> {
@@ -0,0 +1,175 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/*
+ * process wide registry of opened {@link DocumentRandomAccess} of slots, so
+ * that concurrent requests share the mapped files of a slot instead of
+ * opening them for each request.
+ *
+ * an accessor is reference counted between acquire and release. unused
+ * accessors are kept in LRU order and closed when the number of open slots
+ * or the bytes of mapped files exceed the budget. an accessor is reopened if
+ * its files have been rewritten, e.g., by clustering the slot again.
+ */
+public class DocumentAccessRegistry {
+    final int maxOpen;
+    final long maxBytes;
+
+    // path->accessor, in access order
+    LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(
+	    16, 0.75f, true);
+    long bytes;
+
+    // accessor->entry of every open accessor, including stale ones in use
+    IdentityHashMap<DocumentRandomAccess, Entry> opened =
+	    new IdentityHashMap<DocumentRandomAccess, Entry>();
+
+    long hits;
+    long misses;
+    long evictions;
+
+    class Entry {
+	DocumentRandomAccess access;
+	int refs;
+	long bytes;
+	long version;
+
+	// replaced by a newer accessor, closed once released
+	boolean stale;
+    }
+
+    /*
+     * @param maxOpen max number of open slots
+     * @param maxBytes max bytes of mapped slot and index files
+     */
+    public DocumentAccessRegistry(int maxOpen, long maxBytes) {
+	this.maxOpen = maxOpen;
+	this.maxBytes = maxBytes;
+    }
+
+    public DocumentAccessRegistry(Configure conf) {
+	this(conf.getAccessorNum(), (long) conf.getAccessorMB() << 20);
+    }
+
+    /*
+     * get the accessor of a slot, opened for reading. it must be released
+     * after use
+     *
+     * @param path slot file path(without suffix)
+     */
+    public DocumentRandomAccess acquire(String path) throws IOException {
+	File txt = new File(path + ".txt");
+	File offset = new File(path + ".offset");
+	long version = offset.lastModified() ^ txt.lastModified() * 31
+		^ txt.length();
+
+	synchronized (this) {
+	    Entry entry = entries.get(path);
+	    if (entry != null && entry.version == version) {
+		hits++;
+		entry.refs++;
+		return entry.access;
+	    }
+	    misses++;
+	    if (entry != null)
+		retire(path, entry);
+	}
+
+	// open outside of the lock, it maps the files. an accessor failing to
+	// open is not registered
+	DocumentRandomAccess access = new DocumentRandomAccess(path);
+	access.startRead(path);
+
+	synchronized (this) {
+	    Entry entry = entries.get(path);
+	    if (entry != null && entry.version == version) {
+		// opened by another request meanwhile
+		access.endRead();
+		entry.refs++;
+		return entry.access;
+	    }
+	    if (entry != null)
+		retire(path, entry);
+
+	    entry = new Entry();
+	    entry.access = access;
+	    entry.refs = 1;
+	    entry.bytes = txt.length() + offset.length();
+	    entry.version = version;
+	    entries.put(path, entry);
+	    opened.put(access, entry);
+	    bytes += entry.bytes;
+	    evict();
+	    return access;
+	}
+    }
+
+    /*
+     * release an accessor got by acquire
+     */
+    public synchronized void release(DocumentRandomAccess access) {
+	Entry entry = opened.get(access);
+	entry.refs--;
+	if (entry.stale) {
+	    if (entry.refs == 0)
+		close(entry);
+	} else
+	    evict();
+    }
+
+    /*
+     * unregister the outdated accessor of path, it is closed once unused
+     */
+    void retire(String path, Entry entry) {
+	entries.remove(path);
+	bytes -= entry.bytes;
+	entry.stale = true;
+	if (entry.refs == 0)
+	    close(entry);
+    }
+
+    void close(Entry entry) {
+	opened.remove(entry.access);
+	entry.access.endRead();
+    }
+
+    /*
+     * close unused accessors, least recently used first, until the budget
+     * is met
+     */
+    void evict() {
+	Iterator<Entry> it = entries.values().iterator();
+	while ((entries.size() > maxOpen || bytes > maxBytes) && it.hasNext()) {
+	    Entry entry = it.next();
+	    if (entry.refs > 0)
+		continue;
+	    it.remove();
+	    bytes -= entry.bytes;
+	    close(entry);
+	    evictions++;
+	}
+    }
+
+    public synchronized long getHits() {
+	return hits;
+    }
+
+    public synchronized long getMisses() {
+	return misses;
+    }
+
+    public synchronized long getEvictions() {
+	return evictions;
+    }
+
+    public synchronized String toString() {
+	return "accessors: " + entries.size() + " open, " + (bytes >> 20)
+		+ " MB mapped, " + hits + " hits, " + misses + " misses, "
+		+ evictions + " evictions";
+    }
+}
@@ -0,0 +1,101 @@
+package util;
+
+import gnu.trove.TIntArrayList;
+import gnu.trove.TLongArrayList;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/*
+ * documents of several slots to read at once, e.g., the popular documents of
+ * the topics of an answer. the documents are grouped by slot and each slot
+ * is read in the order of offsets by {@link DocumentRandomAccess#readDocuments}.
+ * slots are read in parallel if a pool is given.
+ */
+public class DocumentBatch {
+    // slot and id of each added document
+    TIntArrayList slots = new TIntArrayList();
+    TLongArrayList ids = new TLongArrayList();
+
+    /*
+     * @return the index of the document in the result of {@link #read}
+     */
+    public int add(int slot, long id) {
+	slots.add(slot);
+	ids.add(id);
+	return ids.size() - 1;
+    }
+
+    public int size() {
+	return ids.size();
+    }
+
+    /*
+     * read the added documents from the accessors of their slots
+     *
+     * @param pool threads reading slots, null to read them by this thread
+     *
+     * @return the documents in the order they were added, null for documents
+     * not in the index of their slot
+     */
+    public String[] read(Map<Integer, DocumentRandomAccess> docAccess,
+	    ExecutorService pool) throws IOException {
+	// slot->indexes of its documents
+	HashMap<Integer, TIntArrayList> bySlot = new HashMap<Integer, TIntArrayList>();
+	for (int i = 0; i < slots.size(); i++) {
+	    TIntArrayList indexes = bySlot.get(slots.get(i));
+	    if (indexes == null) {
+		indexes = new TIntArrayList();
+		bySlot.put(slots.get(i), indexes);
+	    }
+	    indexes.add(i);
+	}
+
+	final String[] docs = new String[ids.size()];
+	Vector<Callable<Object>> tasks = new Vector<Callable<Object>>();
+	for (final Map.Entry<Integer, TIntArrayList> e : bySlot.entrySet()) {
+	    final DocumentRandomAccess docAcs = docAccess.get(e.getKey());
+	    if (docAcs == null)
+		throw new IOException("slot " + e.getKey() + " is not open");
+	    tasks.add(new Callable<Object>() {
+		public Object call() {
+		    int[] indexes = e.getValue().toNativeArray();
+		    long[] slotIds = new long[indexes.length];
+		    for (int i = 0; i < indexes.length; i++)
+			slotIds[i] = ids.get(indexes[i]);
+		    String[] slotDocs = docAcs.readDocuments(slotIds);
+		    for (int i = 0; i < indexes.length; i++)
+			docs[indexes[i]] = slotDocs[i];
+		    return null;
+		}
+	    });
+	}
+
+	if (pool == null || tasks.size() < 2) {
+	    for (Callable<Object> task : tasks)
+		try {
+		    task.call();
+		} catch (Exception e) {
+		    throw new IOException(e);
+		}
+	    return docs;
+	}
+
+	try {
+	    for (Future<Object> f : pool.invokeAll(tasks))
+		f.get();
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new IOException(e);
+	} catch (ExecutionException e) {
+	    throw new IOException(e.getCause());
+	}
+	return docs;
+    }
+}
@@ -0,0 +1,103 @@
+package util;
+
+import java.util.Random;
+import java.util.Vector;
+
+import util.Document.Word;
+
+/*
+ * compare the word vector of boxed {@link Word}s in a Vector with the
+ * primitive arrays of {@link Document}: heap per document and cosine
+ * throughput.
+ * 
+ * Usage: DocumentBenchmark [docNum]
+ */
+public class DocumentBenchmark {
+
+    public static void main(String[] args) {
+	int docN = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+	Random rand = new Random(7);
+
+	long before = usedMemory();
+	Document[] docs = new Document[docN];
+	for (int i = 0; i < docN; i++) {
+	    int len = 6 + rand.nextInt(7);
+	    docs[i] = new Document(i, 1, 0);
+	    docs[i].initWordVector(len);
+	    for (int k = 0; k < len; k++)
+		docs[i].append(rand.nextInt(50000), rand.nextFloat());
+	    docs[i].reOrder();
+	    docs[i].normalize();
+	}
+	long arrayBytes = usedMemory() - before;
+
+	before = usedMemory();
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	Vector<Word>[] vecs = new Vector[docN];
+	for (int i = 0; i < docN; i++)
+	    vecs[i] = docs[i].getWordVector();
+	long vectorBytes = usedMemory() - before;
+
+	System.out.println("heap per document: Document with arrays " + arrayBytes / docN
+		+ " bytes, its Vector<Word> alone " + vectorBytes / docN + " bytes");
+
+	int pairs = 20000000;
+	for (int round = 0; round < 2; round++) {
+	    float sum = 0f;
+	    long start = System.nanoTime();
+	    for (int i = 0; i < pairs; i++)
+		sum += docs[i % docN].sim(docs[(i * 31 + 7) % docN]);
+	    double arrayRate = pairs / ((System.nanoTime() - start) / 1e9);
+
+	    start = System.nanoTime();
+	    for (int i = 0; i < pairs; i++)
+		sum -= cosine(vecs[i % docN], vecs[(i * 31 + 7) % docN]);
+	    double vectorRate = pairs / ((System.nanoTime() - start) / 1e9);
+
+	    System.out.println("cosine/s: arrays " + (long) arrayRate
+		    + ", Vector<Word> " + (long) vectorRate + " (check "
+		    + sum + ")");
+	}
+    }
+
+    static long usedMemory() {
+	Runtime rt = Runtime.getRuntime();
+	for (int i = 0; i < 3; i++)
+	    System.gc();
+	return rt.totalMemory() - rt.freeMemory();
+    }
+
+    /*
+     * the cosine of the previous Vector<Word> representation
+     */
+    static float cosine(Vector<Word> vec1, Vector<Word> vec2) {
+	if (vec1.size() == 0 || vec2.size() == 0)
+	    return 0f;
+
+	int id1 = vec1.get(0).getId();
+	int id2 = vec2.get(0).getId();
+	float ret = 0f;
+	int i = 0, j = 0;
+	while (true) {
+	    if (id1 == id2) {
+		ret += vec1.get(i).getWeight() * vec2.get(j).getWeight();
+		if (++i < vec1.size() && ++j < vec2.size()) {
+		    id1 = vec1.get(i).getId();
+		    id2 = vec2.get(j).getId();
+		} else
+		    break;
+	    } else if (id1 < id2) {
+		if (++i < vec1.size())
+		    id1 = vec1.get(i).getId();
+		else
+		    break;
+	    } else {
+		if (++j < vec2.size())
+		    id2 = vec2.get(j).getId();
+		else
+		    break;
+	    }
+	}
+	return ret;
+    }
+}
@@ -1,55 +1,207 @@
 package util;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.FileNotFoundException;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 
+import gnu.trove.TLongArrayList;
+
+/*
+ * read documents of a slot file(path.txt) by id. the offset of each document
+ * is kept in a binary index file(path.offset), both files are memory mapped.
+ *
+ * index: magic, version, document number n, n ids in increasing order, n
+ * offsets of the documents in the same order.
+ *
+ * an accessor is read only after startRead, it can be shared by threads.
+ */
 public class DocumentRandomAccess {
 
-    // map doc id to its offset in doc file which has the raw text
-    private HashMap<Long, Long> docOffsetMap;
+    static final int MAGIC = 0x5442444f;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // slot files are mapped by regions, a region overlaps the next one by
+    // MAX_LINE bytes so that a document is read from one region
+    static final long REGION = 1L << 30;
+    static final int MAX_LINE = 1 << 20;
+
+    // ids and offsets of the mapped index
+    LongBuffer ids;
+    LongBuffer offsets;
+    int docN;
+
+    // offsets added for saving
+    TLongArrayList addedIds;
+    TLongArrayList addedOffsets;
 
     // file storing documents
     RandomAccessFile file;
+    MappedByteBuffer[] regions;
+    long length;
 
     public DocumentRandomAccess(String path) throws NumberFormatException, IOException{
-	docOffsetMap = new HashMap<Long, Long>(100000);
 	loadOffset(path);
     }
-    
+
     public DocumentRandomAccess() {
-	docOffsetMap = new HashMap<Long, Long>(100000);
+	addedIds = new TLongArrayList(100000);
+	addedOffsets = new TLongArrayList(100000);
     }
 
     public void addOffset(long id, long offset) {
-	docOffsetMap.put(id, offset);
+	addedIds.add(id);
+	addedOffsets.add(offset);
     }
 
-    public boolean startRead(String path) throws FileNotFoundException {
+    /*
+     * map the slot file path.txt for reading. if it fails, the file is
+     * closed and the accessor can not be read
+     */
+    public void startRead(String path) throws IOException {
 	file = new RandomAccessFile(path+".txt", "r");
-	return file != null;
+	try {
+	    length = file.length();
+	    int n = (int) ((length + REGION - 1) / REGION);
+	    regions = new MappedByteBuffer[n];
+	    for (int i = 0; i < n; i++) {
+		long start = i * REGION;
+		regions[i] = file.getChannel().map(FileChannel.MapMode.READ_ONLY,
+			start, Math.min(length - start, REGION + MAX_LINE));
+	    }
+	} catch (IOException e) {
+	    regions = null;
+	    file.close();
+	    throw e;
+	}
     }
 
+    /*
+     * @return the document(a line of path.txt) of id, null if it is not in
+     * the index
+     */
     public String readDocument(long id) {
-	Long offset = docOffsetMap.get(id);
-	String ret=null;
-	if (offset != null) {
-	    try {
+	long offset = getOffset(id);
+	if (offset < 0)
+	    return null;
+	return readLine(offset);
+    }
+
+    /*
+     * read the documents of docIds in the order of their offsets, so that the
+     * file is read forward once instead of at random
+     *
+     * @return the documents in the order of docIds, null for ids not in the
+     * index
+     */
+    public String[] readDocuments(long[] docIds) {
+	int n = docIds.length;
+	long[] sortedOffsets = new long[n];
+	long[] positions = new long[n];
+	for (int i = 0; i < n; i++) {
+	    sortedOffsets[i] = getOffset(docIds[i]);
+	    positions[i] = i;
+	}
+	sort(sortedOffsets, positions, 0, n - 1);
+
+	String[] docs = new String[n];
+	for (int i = 0; i < n; i++)
+	    if (sortedOffsets[i] >= 0)
+		docs[(int) positions[i]] = readLine(sortedOffsets[i]);
+	return docs;
+    }
+
+    /*
+     * @return the line starting at offset
+     */
+    String readLine(long offset) {
+	ByteBuffer region = regions[(int) (offset / REGION)].duplicate();
+	int start = (int) (offset % REGION), end = start;
+	while (end < region.limit() && region.get(end) != '\n')
+	    end++;
+	if (end == region.limit() && offset + end - start < length)
+	    return readLongLine(offset);
+	if (end > start && region.get(end - 1) == '\r')
+	    end--;
+
+	byte[] line = new byte[end - start];
+	region.position(start);
+	region.get(line);
+	return new String(line, UTF8);
+    }
+
+    /*
+     * read a line longer than MAX_LINE from the file, a trailing '\r' is
+     * dropped like by readLine
+     */
+    String readLongLine(long offset) {
+	try {
+	    synchronized (file) {
 		file.seek(offset);
-		ret=file.readLine();
-	    } catch (IOException e) {
-		// TODO Auto-generated catch block
-		e.printStackTrace();
+		ByteBuffer buf = ByteBuffer.allocate(2 * MAX_LINE);
+		while (true) {
+		    int n = file.read(buf.array(), buf.position(), buf.remaining());
+		    int end = buf.position();
+		    if (n > 0)
+			buf.position(end + n);
+		    for (int i = end; i < buf.position(); i++)
+			if (buf.get(i) == '\n')
+			    return chompLine(buf.array(), i);
+		    if (n < 0)
+			return chompLine(buf.array(), buf.position());
+		    if (!buf.hasRemaining()) {
+			ByteBuffer larger = ByteBuffer.allocate(buf.capacity() * 2);
+			buf.flip();
+			larger.put(buf);
+			buf = larger;
+		    }
+		}
 	    }
+	} catch (IOException e) {
+	    e.printStackTrace();
+	    return null;
+	}
+    }
+
+    /*
+     * @return the first len bytes of line without a trailing '\r'
+     */
+    static String chompLine(byte[] line, int len) {
+	if (len > 0 && line[len - 1] == '\r')
+	    len--;
+	return new String(line, 0, len, UTF8);
+    }
+
+    /*
+     * binary search id in the index
+     *
+     * @return offset of document id, -1 if it is not in the index
+     */
+    public long getOffset(long id) {
+	int low = 0, high = docN - 1;
+	while (low <= high) {
+	    int mid = (low + high) >>> 1;
+	    long midId = ids.get(mid);
+	    if (midId < id)
+		low = mid + 1;
+	    else if (midId > id)
+		high = mid - 1;
+	    else
+		return offsets.get(mid);
 	}
-	
-	return ret;
+	return -1;
     }
 
     public void endRead() {
@@ -59,41 +211,137 @@ public class DocumentRandomAccess {
 	    // TODO Auto-generated catch block
 	    e.printStackTrace();
 	}
+	regions = null;
     }
-    
-    
+
+
     /*
-     * save the offset records into file
-     * 
+     * save the added offset records into the index file, sorted by id. the
+     * file is written aside and renamed, so that an accessor opened meanwhile
+     * never maps a partially written index
+     *
      * @param path the file for storing the offset records
      */
     public void saveOffset(String path) throws IOException{
-	BufferedWriter out=new BufferedWriter(new FileWriter(path+".offset"));
-	for(Map.Entry<Long, Long>entry:docOffsetMap.entrySet()){
-	    out.write(entry.getKey()+","+entry.getValue());
-	    out.newLine();
-	}
+	long[] sortedIds = addedIds.toNativeArray();
+	long[] sortedOffsets = addedOffsets.toNativeArray();
+	int n = sortUnique(sortedIds, sortedOffsets, sortedIds.length);
+
+	File f = new File(path + ".offset");
+	File tmp = new File(path + ".offset.tmp");
+	DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+		new FileOutputStream(tmp), 1 << 16));
+	out.writeInt(MAGIC);
+	out.writeInt(VERSION);
+	out.writeLong(n);
+	for (int i = 0; i < n; i++)
+	    out.writeLong(sortedIds[i]);
+	for (int i = 0; i < n; i++)
+	    out.writeLong(sortedOffsets[i]);
 	out.flush();
 	out.close();
+	if (!tmp.renameTo(f))
+	    throw new IOException("failed to replace " + f);
+    }
+
+    /*
+     * sort the records by id and remove duplicate ids. like a map of id to
+     * offset, the last added offset of an id is kept, which is the largest
+     * one as documents are added in the order of the file
+     *
+     * @return number of records left
+     */
+    static int sortUnique(long[] ids, long[] offsets, int n) {
+	sort(ids, offsets, 0, n - 1);
+	int k = 0;
+	for (int i = 0; i < n; i++) {
+	    if (k > 0 && ids[k - 1] == ids[i])
+		k--;
+	    ids[k] = ids[i];
+	    offsets[k++] = offsets[i];
+	}
+	return k;
+    }
+
+    /*
+     * quick sort records by id and offset
+     */
+    static void sort(long[] ids, long[] offsets, int low, int high) {
+	while (low < high) {
+	    int m = (low + high) >>> 1;
+	    long pivot = ids[m], pivotOffset = offsets[m];
+	    int i = low, j = high;
+	    while (i <= j) {
+		while (ids[i] < pivot || ids[i] == pivot
+			&& offsets[i] < pivotOffset)
+		    i++;
+		while (ids[j] > pivot || ids[j] == pivot
+			&& offsets[j] > pivotOffset)
+		    j--;
+		if (i <= j) {
+		    long t = ids[i];
+		    ids[i] = ids[j];
+		    ids[j] = t;
+		    t = offsets[i];
+		    offsets[i] = offsets[j];
+		    offsets[j] = t;
+		    i++;
+		    j--;
+		}
+	    }
+	    // recurse into the smaller part
+	    if (j - low < high - i) {
+		sort(ids, offsets, low, j);
+		low = i;
+	    } else {
+		sort(ids, offsets, i, high);
+		high = j;
+	    }
+	}
     }
-    
+
     /*
-     * read offset records from file
-     * 
+     * map the index file. an index in the previous text format(a line of
+     * id,offset per document) is read into memory
+     *
      * @param path file storing the records
      */
     public void loadOffset(String path) throws NumberFormatException, IOException{
-	BufferedReader in=new BufferedReader(new FileReader(path+".offset"));	
-	
+	File f = new File(path + ".offset");
+	RandomAccessFile raf = new RandomAccessFile(f, "r");
+	try {
+	    if (raf.length() >= HEADER_SIZE && raf.readInt() == MAGIC) {
+		if (raf.readInt() != VERSION)
+		    throw new IOException("unknown index version " + f);
+		docN = (int) raf.readLong();
+		MappedByteBuffer buf = raf.getChannel().map(
+			FileChannel.MapMode.READ_ONLY, HEADER_SIZE, 16L * docN);
+		ids = buf.asLongBuffer();
+		ids.limit(docN);
+		buf.position(8 * docN);
+		offsets = buf.slice().asLongBuffer();
+		return;
+	    }
+	} finally {
+	    raf.close();
+	}
+
+	addedIds = new TLongArrayList(100000);
+	addedOffsets = new TLongArrayList(100000);
+	BufferedReader in=new BufferedReader(new FileReader(f));
 	String line;
 	while((line=in.readLine())!=null){
 	    int pos=line.indexOf(",");
-	    long id=Long.parseLong(line.substring(0,pos));
-	    long offset=Long.parseLong(line.substring(pos+1));
-	    docOffsetMap.put(id,offset);
+	    addOffset(Long.parseLong(line.substring(0, pos)),
+		    Long.parseLong(line.substring(pos + 1)));
 	}
-	
 	in.close();
+
+	long[] sortedIds = addedIds.toNativeArray();
+	long[] sortedOffsets = addedOffsets.toNativeArray();
+	docN = sortUnique(sortedIds, sortedOffsets, sortedIds.length);
+	ids = LongBuffer.wrap(sortedIds);
+	offsets = LongBuffer.wrap(sortedOffsets);
     }
 
 }
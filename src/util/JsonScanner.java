@@ -0,0 +1,364 @@
+package util;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+/*
+ * streaming scanner for flat json records like tweets and documents. only the
+ * fields given to the constructor are located, other values are skipped
+ * without building any object. a field is referred to by its index in the
+ * constructor; a nested field is given by its path, e.g. "crtdt.$date".
+ *
+ * string values are unescaped only when asked for by getString. a scanner
+ * keeps the state of the last record, it is not thread safe.
+ */
+public class JsonScanner {
+
+    static final byte MISSING = 0;
+    static final byte STRING = 1;
+    static final byte OBJECT = 2;
+    static final byte OTHER = 3;
+
+    final String[] fields;
+    final byte[] types;
+    final int[] starts;
+    final int[] ends;
+
+    String json;
+    int pos;
+
+    StringBuilder buf = new StringBuilder();
+    Calendar calendar;
+    SimpleDateFormat dateFormat;
+
+    public JsonScanner(String... fields) {
+	this.fields = fields;
+	types = new byte[fields.length];
+	starts = new int[fields.length];
+	ends = new int[fields.length];
+    }
+
+    /*
+     * locate the fields of a record
+     *
+     * @return false if the record is not a well formed json object
+     */
+    public boolean scan(String json) {
+	this.json = json;
+	for (int i = 0; i < types.length; i++)
+	    types[i] = MISSING;
+	try {
+	    pos = 0;
+	    skipSpace();
+	    scanObject("");
+	    skipSpace();
+	    return pos == json.length();
+	} catch (IndexOutOfBoundsException e) {
+	    return false;
+	} catch (IllegalStateException e) {
+	    return false;
+	}
+    }
+
+    /*
+     * @return true if the field is present and not null
+     */
+    public boolean has(int field) {
+	return types[field] != MISSING;
+    }
+
+    /*
+     * @return the integer value of the field
+     *
+     * @throws NumberFormatException if the field is missing or not an integer
+     */
+    public long getLong(int field) {
+	if (types[field] != OTHER)
+	    throw new NumberFormatException(fields[field] + " is not a number");
+	int s = starts[field], e = ends[field];
+	boolean negative = json.charAt(s) == '-';
+	if (negative)
+	    s++;
+	if (s == e || e - s > 18)
+	    return Long.parseLong(json.substring(starts[field], e));
+
+	long v = 0;
+	for (int i = s; i < e; i++) {
+	    char c = json.charAt(i);
+	    if (c < '0' || c > '9')
+		throw new NumberFormatException(json.substring(starts[field], e));
+	    v = v * 10 + (c - '0');
+	}
+	return negative ? -v : v;
+    }
+
+    /*
+     * @return the unescaped value of a string field, null if the field is
+     * missing or not a string
+     */
+    public String getString(int field) {
+	if (types[field] != STRING)
+	    return null;
+	return unescape(starts[field] + 1, ends[field] - 1);
+    }
+
+    /*
+     * parse a time string field of format yyyy-MM-dd'T'HH:mm:ss.SSS'Z'. like
+     * the SimpleDateFormat used before, the time is read in the default time
+     * zone.
+     *
+     * @return the time in milliseconds
+     */
+    public long getTime(int field) throws ParseException {
+	String date = getString(field);
+	if (date == null)
+	    throw new ParseException(fields[field] + " is not a string", 0);
+
+	if (date.length() == 24 && date.charAt(4) == '-'
+		&& date.charAt(7) == '-' && date.charAt(10) == 'T'
+		&& date.charAt(13) == ':' && date.charAt(16) == ':'
+		&& date.charAt(19) == '.' && date.charAt(23) == 'Z') {
+	    int year = digits(date, 0, 4), month = digits(date, 5, 2), day = digits(
+		    date, 8, 2), hour = digits(date, 11, 2), minute = digits(
+		    date, 14, 2), second = digits(date, 17, 2), milli = digits(
+		    date, 20, 3);
+	    if ((year | month | day | hour | minute | second | milli) >= 0) {
+		if (calendar == null)
+		    calendar = new GregorianCalendar();
+		calendar.clear();
+		calendar.set(year, month - 1, day, hour, minute, second);
+		calendar.set(Calendar.MILLISECOND, milli);
+		return calendar.getTimeInMillis();
+	    }
+	}
+
+	if (dateFormat == null)
+	    dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+	return dateFormat.parse(date).getTime();
+    }
+
+    /*
+     * read an object field of word id to weight pairs into the vector of doc
+     *
+     * @return false if the field is missing or not an object
+     */
+    public boolean getVector(int field, Document doc) {
+	if (types[field] != OBJECT)
+	    return false;
+	pos = starts[field] + 1;
+	int end = ends[field];
+	while (true) {
+	    skipSpace();
+	    if (pos >= end - 1)
+		return true;
+	    char c = json.charAt(pos);
+	    if (c == ',') {
+		pos++;
+		continue;
+	    }
+	    int ks = pos;
+	    skipString();
+	    int wordId = Integer.parseInt(unescape(ks + 1, pos - 1));
+	    skipSpace();
+	    pos++; // ':'
+	    skipSpace();
+	    int vs = pos;
+	    skipValue();
+	    double w = Double.parseDouble(json.substring(vs, pos));
+	    doc.append(wordId, (float) w);
+	}
+    }
+
+    /*
+     * @return the string json[s,e) with escape sequences replaced
+     */
+    String unescape(int s, int e) {
+	int esc = json.indexOf('\\', s);
+	if (esc < 0 || esc >= e)
+	    return json.substring(s, e);
+
+	buf.setLength(0);
+	buf.append(json, s, esc);
+	for (int i = esc; i < e; i++) {
+	    char c = json.charAt(i);
+	    if (c != '\\') {
+		buf.append(c);
+		continue;
+	    }
+	    c = json.charAt(++i);
+	    switch (c) {
+	    case 'b':
+		buf.append('\b');
+		break;
+	    case 'f':
+		buf.append('\f');
+		break;
+	    case 'n':
+		buf.append('\n');
+		break;
+	    case 'r':
+		buf.append('\r');
+		break;
+	    case 't':
+		buf.append('\t');
+		break;
+	    case 'u':
+		buf.append((char) Integer.parseInt(json.substring(i + 1, i + 5),
+			16));
+		i += 4;
+		break;
+	    default:
+		buf.append(c);
+	    }
+	}
+	return buf.toString();
+    }
+
+    static int digits(String s, int off, int len) {
+	int v = 0;
+	for (int i = off; i < off + len; i++) {
+	    char c = s.charAt(i);
+	    if (c < '0' || c > '9')
+		return -1;
+	    v = v * 10 + (c - '0');
+	}
+	return v;
+    }
+
+    /*
+     * scan the members of the object at pos, record the values of fields
+     * under path prefix
+     */
+    void scanObject(String prefix) {
+	expect('{');
+	skipSpace();
+	if (json.charAt(pos) == '}') {
+	    pos++;
+	    return;
+	}
+	while (true) {
+	    skipSpace();
+	    int ks = pos;
+	    skipString();
+	    int ke = pos;
+	    skipSpace();
+	    expect(':');
+	    skipSpace();
+
+	    int field = -1;
+	    String path = null;
+	    for (int i = 0; i < fields.length; i++) {
+		if (matches(fields[i], prefix, ks, ke)) {
+		    field = i;
+		    break;
+		}
+		if (path == null && json.charAt(pos) == '{'
+			&& matches(fields[i], prefix, ks, ke, '.'))
+		    path = fields[i].substring(0, prefix.length() + ke - ks - 1);
+	    }
+
+	    int vs = pos;
+	    char c = json.charAt(pos);
+	    if (field < 0 && path != null)
+		scanObject(path);
+	    else
+		skipValue();
+
+	    if (field >= 0) {
+		if (c == 'n' && json.startsWith("null", vs))
+		    types[field] = MISSING;
+		else {
+		    types[field] = c == '"' ? STRING : c == '{' ? OBJECT : OTHER;
+		    starts[field] = vs;
+		    ends[field] = pos;
+		}
+	    }
+
+	    skipSpace();
+	    c = json.charAt(pos++);
+	    if (c == '}')
+		return;
+	    if (c != ',')
+		throw new IllegalStateException("unexpected " + c + " at "
+			+ (pos - 1));
+	}
+    }
+
+    /*
+     * whether field equals prefix followed by the key json[ks,ke)
+     */
+    boolean matches(String field, String prefix, int ks, int ke) {
+	int n = prefix.length() + ke - ks - 2;
+	return field.length() == n && matchKey(field, prefix, ks, ke);
+    }
+
+    /*
+     * whether field starts with prefix, the key json[ks,ke) and separator
+     */
+    boolean matches(String field, String prefix, int ks, int ke, char sep) {
+	int n = prefix.length() + ke - ks - 2;
+	return field.length() > n + 1 && field.charAt(n) == sep
+		&& matchKey(field, prefix, ks, ke);
+    }
+
+    boolean matchKey(String field, String prefix, int ks, int ke) {
+	if (!field.startsWith(prefix))
+	    return false;
+	return field.regionMatches(prefix.length(), json, ks + 1, ke - ks - 2);
+    }
+
+    void skipValue() {
+	char c = json.charAt(pos);
+	if (c == '"') {
+	    skipString();
+	} else if (c == '{' || c == '[') {
+	    int depth = 0;
+	    do {
+		c = json.charAt(pos);
+		if (c == '"') {
+		    skipString();
+		    continue;
+		}
+		if (c == '{' || c == '[')
+		    depth++;
+		else if (c == '}' || c == ']')
+		    depth--;
+		pos++;
+	    } while (depth > 0);
+	} else {
+	    int s = pos;
+	    while (pos < json.length()) {
+		c = json.charAt(pos);
+		if (c == ',' || c == '}' || c == ']' || c <= ' ')
+		    break;
+		pos++;
+	    }
+	    if (pos == s)
+		throw new IllegalStateException("missing value at " + s);
+	}
+    }
+
+    void skipString() {
+	expect('"');
+	while (true) {
+	    char c = json.charAt(pos++);
+	    if (c == '"')
+		return;
+	    if (c == '\\')
+		pos++;
+	}
+    }
+
+    void skipSpace() {
+	while (pos < json.length() && json.charAt(pos) <= ' ')
+	    pos++;
+    }
+
+    void expect(char c) {
+	if (json.charAt(pos) != c)
+	    throw new IllegalStateException("expect " + c + " at " + pos);
+	pos++;
+    }
+}
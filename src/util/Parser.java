@@ -1,15 +1,27 @@
 package util;
 
+import gnu.trove.TLongArrayList;
+
 import java.io.IOException;
+import java.util.Vector;
 
 public abstract class Parser {
     public Dictionary dict = null;
+    protected Configure conf;
 
     public Parser(Configure conf) throws IOException{
+	this.conf = conf;
 	dict = new Dictionary(conf);
     }
     
     
+    /*
+     * create a parser with the same settings and an empty dictionary, so that
+     * documents can be parsed by several threads, one parser per thread
+     */
+    public abstract Parser newParser() throws IOException;
+    
+    
     /*
      * stem a word into basic form, e.g., did-> do
      * 
@@ -38,6 +50,25 @@ public abstract class Parser {
     public abstract Document parseRawDocument(String doc);
     
     
+    /*
+     * add the words of a document converted by {@link #parseRawDocument} to
+     * the dictionary again, as parsing its raw document did
+     * 
+     * @param doc a converted document encoded(e.g., json) as a string
+     */
+    public abstract void countWords(String doc);
+    
+    
+    /*
+     * split a text into words as the text of a document is parsed, e.g., the
+     * keywords of a search. skipped tokens are dropped
+     * 
+     * @param text a string
+     * @return the words in the order of the text
+     */
+    public abstract Vector<String> parseWords(String text);
+    
+    
     /*
      * parse document, especially its text into vector model
      * 
@@ -49,6 +80,28 @@ public abstract class Parser {
     public abstract Document parseDocument(String doc);
     
     
+    /*
+     * vectorize documents of a slot file(path without suffix) into a binary
+     * file, so that later loading skips text parsing
+     * 
+     * @param path slot file path(without suffix)
+     */
+    public abstract void vectorizeDocuments(String path) throws IOException;
+    
+    
+    /*
+     * load documents of a slot from the binary file written by
+     * {@link #vectorizeDocuments}, the result is the same as calling
+     * parseDocument on each line of the slot file
+     * 
+     * @param docs parsed documents are appended
+     * @param offsets offset of each parsed document in the slot file
+     * @return false if the binary file is missing or stale
+     */
+    public abstract boolean loadVectors(String path, Vector<Document> docs,
+	    TLongArrayList offsets) throws IOException;
+    
+    
     public abstract void saveDictionary();
     
     
@@ -0,0 +1,97 @@
+package util;
+
+/*
+ * open addressing hash table from terms to int values. a term can be looked
+ * up by a char sequence in a buffer, so no String has to be created for it.
+ */
+public class TermTable {
+
+    char[][] keys;
+    int[] values;
+    int size;
+
+    public TermTable() {
+	this(16);
+    }
+
+    public TermTable(int expected) {
+	int capacity = 16;
+	while (capacity < expected * 2)
+	    capacity <<= 1;
+	keys = new char[capacity][];
+	values = new int[capacity];
+    }
+
+    /*
+     * @return the previous value of term, -1 if it is new
+     */
+    public int put(String term, int value) {
+	if (2 * (size + 1) > keys.length)
+	    rehash(keys.length * 2);
+
+	char[] key = term.toCharArray();
+	int slot = find(key, 0, key.length);
+	if (keys[slot] != null) {
+	    int old = values[slot];
+	    values[slot] = value;
+	    return old;
+	}
+	keys[slot] = key;
+	values[slot] = value;
+	size++;
+	return -1;
+    }
+
+    /*
+     * @return value of term buf[off,off+len), -1 if it is not in the table
+     */
+    public int get(char[] buf, int off, int len) {
+	int slot = find(buf, off, len);
+	return keys[slot] == null ? -1 : values[slot];
+    }
+
+    public int get(String term) {
+	return get(term.toCharArray(), 0, term.length());
+    }
+
+    public int size() {
+	return size;
+    }
+
+    // slot of the term, or the empty slot it would be put at
+    int find(char[] buf, int off, int len) {
+	int h = 0;
+	for (int i = off; i < off + len; i++)
+	    h = 31 * h + buf[i];
+	h ^= (h >>> 16);
+
+	int mask = keys.length - 1;
+	int slot = h & mask;
+	while (keys[slot] != null && !equals(keys[slot], buf, off, len))
+	    slot = (slot + 1) & mask;
+	return slot;
+    }
+
+    static boolean equals(char[] key, char[] buf, int off, int len) {
+	if (key.length != len)
+	    return false;
+	for (int i = 0; i < len; i++)
+	    if (key[i] != buf[off + i])
+		return false;
+	return true;
+    }
+
+    void rehash(int capacity) {
+	char[][] oldKeys = keys;
+	int[] oldValues = values;
+	keys = new char[capacity][];
+	values = new int[capacity];
+	for (int i = 0; i < oldKeys.length; i++) {
+	    if (oldKeys[i] != null) {
+		int slot = find(oldKeys[i], 0, oldKeys[i].length);
+		keys[slot] = oldKeys[i];
+		values[slot] = oldValues[i];
+	    }
+	}
+    }
+}